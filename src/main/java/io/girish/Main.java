@@ -1,9 +1,44 @@
 package io.girish;
 
+import io.girish.cli.BatchRunner;
 import io.girish.cli.Menu;
+import io.girish.core.CsvEvaluator;
+import io.girish.core.ExpressionParser;
+import io.girish.shuntingyard.ShuntingYard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
 
 public class Main {
-    public static void main(String[] args) {
+    // Buffer size for batch input and output
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            // "--batch file" reads the file, "--batch" or "--batch -" reads standard input
+            String file = args.length > 1 ? args[1] : "-";
+
+            runBatch(file);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--csv")) {
+            if (args.length < 4) {
+                System.err.println("Usage: --csv <input.csv> <output> <expression> [variable=value ...]");
+                System.exit(2);
+            }
+
+            runCsv(args);
+            return;
+        }
+
         Menu menu = new Menu();
 
         System.out.println();
@@ -12,4 +47,54 @@ public class Main {
 
         menu.getInput();
     }
+
+    private static void runBatch(String file) throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+
+        BufferedReader in = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), BUFFER_SIZE)
+                : new BufferedReader(new FileReader(file, StandardCharsets.UTF_8), BUFFER_SIZE);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+
+        long start = System.nanoTime();
+
+        try (in) {
+            batchRunner.run(in, out);
+        }
+
+        // Results go to standard output, so the report goes to standard error to keep them parseable
+        batchRunner.reportThroughput(System.err, System.nanoTime() - start);
+    }
+
+    /*
+     * Evaluates args[3] for every row of the CSV file args[1] into args[2], with the declarations after it
+     * for the variables that are not columns of the file
+     */
+    private static void runCsv(String[] args) throws Exception {
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+
+        for (int i = 4; i < args.length; i++) {
+            List<String> variableDeclaration = ExpressionParser.parseVariableDeclaration(args[i]);
+
+            expressionVariables.put(variableDeclaration.get(0), ShuntingYard.evaluate(variableDeclaration.get(1), expressionVariables));
+        }
+
+        CsvEvaluator csvEvaluator = new CsvEvaluator(ShuntingYard.compile(args[3]));
+
+        long[] lastPercent = {-1};
+
+        csvEvaluator.setProgressListener((rows, bytesRead, totalBytes) -> {
+            long percent = totalBytes > 0 ? bytesRead * 100 / totalBytes : 100;
+
+            if (percent != lastPercent[0]) {
+                lastPercent[0] = percent;
+                System.err.print("\rEvaluated " + rows + " rows (" + percent + "%)");
+            }
+        });
+
+        CsvEvaluator.Result result = csvEvaluator.evaluate(Path.of(args[1]), Path.of(args[2]), expressionVariables);
+
+        System.err.println();
+        System.err.println(result);
+    }
 }
@@ -0,0 +1,196 @@
+package io.girish.cli;
+
+import io.girish.cli.enums.MenuEvent;
+import io.girish.core.ExpressionParser;
+import io.girish.core.ResultFormatter;
+import io.girish.shuntingyard.ExpressionException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Non-interactive counterpart of Menu.getInput: reads expressions and variable declarations line by
+ * line, evaluates them in order and writes one result line for each, in the same format as the REPL.
+ *
+ * Declared variables (numbers or arrays, see Workspace) are visible to all following lines. Lines that
+ * cannot be evaluated produce an error line and the batch continues; plotting and help need a terminal
+ * and are reported as errors.
+ * Input and output are buffered, and every distinct expression is compiled only once (see
+ * ShuntingYard.getCache()), so thousands of lines are processed without per-line console overhead.
+ */
+public class BatchRunner {
+    private final Workspace workspace = new Workspace();
+
+    private final ResultFormatter resultFormatter = new ResultFormatter();
+
+    private long lines = 0;
+    private long errors = 0;
+
+    /*
+     * Processes every line of the input until its end or an "exit" line, and flushes the output
+     */
+    public void run(BufferedReader in, BufferedWriter out) throws IOException {
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            String input = normalize(line);
+
+            if (input.isEmpty()) {
+                continue;
+            }
+
+            this.lines++;
+
+            if (!process(input, out)) {
+                break;
+            }
+        }
+
+        out.flush();
+    }
+
+    /*
+     * Processes one line, returns false if the batch should stop
+     */
+    private boolean process(String input, BufferedWriter out) throws IOException {
+        MenuEvent event = Menu.determineEvent(input);
+
+        try {
+            switch (event) {
+                case EVALUATE_EXPRESSION -> {
+                    Value expressionResult = this.workspace.evaluate(input);
+
+                    out.write(input);
+                    out.write('=');
+                    write(expressionResult, out);
+                    out.newLine();
+                }
+                case DECLARE_VARIABLE -> {
+                    List<String> variableDeclaration = ExpressionParser.parseVariableDeclaration(input);
+
+                    String variableName = variableDeclaration.get(0);
+                    Value evaluatedVariable = this.workspace.declare(variableName, variableDeclaration.get(1));
+
+                    out.write("Stored variable ");
+                    out.write(variableName);
+                    out.write('=');
+
+                    writeVariable(evaluatedVariable, out);
+
+                    for (String updatedVariable : this.workspace.getUpdatedVariables()) {
+                        out.write("Updated variable ");
+                        out.write(updatedVariable);
+                        out.write('=');
+                        writeVariable(this.workspace.get(updatedVariable), out);
+                    }
+                }
+                case SHOW_VARIABLES -> {
+                    for (Map.Entry<String, Double> exprVar : this.workspace.getExpressionVariables().entrySet()) {
+                        out.write("\t" + exprVar.getKey() + "\t" + exprVar.getValue());
+                        out.newLine();
+                    }
+                    for (Map.Entry<String, double[]> arrayVar : this.workspace.getArrayVariables().entrySet()) {
+                        out.write("\t" + arrayVar.getKey() + "\t");
+                        write(Value.of(arrayVar.getValue()), out);
+                        out.newLine();
+                    }
+                }
+                case PLOT, SHOW_HELP -> error(out, input, "not available in batch mode");
+                case EXIT -> {
+                    return false;
+                }
+            }
+        } catch (ExpressionException e) {
+            error(out, input, e.getMessage());
+        } catch (Exception e) {
+            error(out, input, null);
+        }
+
+        return true;
+    }
+
+    /*
+     * Writes a stored value and ends the line, numbers as the REPL shows stored variables
+     */
+    private void writeVariable(Value value, BufferedWriter out) throws IOException {
+        if (value.isArray()) {
+            write(value, out);
+        } else {
+            out.write(Double.toString(value.getScalar()));
+        }
+        out.newLine();
+    }
+
+    private void write(Value value, BufferedWriter out) throws IOException {
+        if (value.isArray()) {
+            out.append(value.format(this.resultFormatter));
+        } else {
+            this.resultFormatter.formatTo(value.getScalar(), out);
+        }
+    }
+
+    private void error(BufferedWriter out, String input, String message) throws IOException {
+        this.errors++;
+
+        out.write("Error in expression: \"");
+        out.write(input);
+        out.write(message == null ? "\"." : "\" (" + message + ").");
+        out.newLine();
+    }
+
+    /*
+     * Trims the line and collapses runs of whitespace into one space, like the REPL does
+     */
+    static String normalize(String line) {
+        String trimmed = line.trim();
+        StringBuilder sb = null;
+
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            boolean whitespace = Character.isWhitespace(c);
+
+            if (sb == null) {
+                // Only copy the line once it contains whitespace that has to change
+                if (whitespace && (c != ' ' || i + 1 == trimmed.length() || Character.isWhitespace(trimmed.charAt(i + 1)))) {
+                    sb = new StringBuilder(trimmed.length()).append(trimmed, 0, i).append(' ');
+                }
+            } else if (!whitespace) {
+                sb.append(c);
+            } else if (sb.charAt(sb.length() - 1) != ' ') {
+                sb.append(' ');
+            }
+        }
+
+        return sb == null ? trimmed : sb.toString();
+    }
+
+    /*
+     * Writes the number of lines processed and the throughput
+     */
+    public void reportThroughput(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+
+        out.printf("Processed %d lines (%d errors) in %.3f s, %.0f lines/s%n",
+                this.lines, this.errors, seconds, seconds > 0 ? this.lines / seconds : 0);
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public Map<String, Double> getExpressionVariables() {
+        return this.workspace.getExpressionVariables();
+    }
+
+    public Workspace getWorkspace() {
+        return workspace;
+    }
+}
@@ -4,18 +4,27 @@ import io.girish.cli.enums.MenuEvent;
 import io.girish.core.ExpressionValidator;
 import io.girish.core.Graph;
 import io.girish.core.PPMColor;
+import io.girish.core.ResultFormatter;
+import io.girish.shuntingyard.AdaptiveSampler;
+import io.girish.shuntingyard.CompiledExpression;
+import io.girish.shuntingyard.ExpressionException;
 import io.girish.shuntingyard.ShuntingYard;
 import io.girish.core.ExpressionParser;
+import io.girish.shuntingyard.enums.MathMode;
 
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
 public class Menu {
-    private final HashMap<String, Double> expressionVariables = new HashMap<>();
+    // Largest number of evaluations per plot
+    private static final int PLOT_BUDGET = 20000;
+
+    // Numbers and arrays declared in this session
+    private final Workspace workspace = new Workspace();
+
+    // Shared by the prompt and the plot dialog, a second Scanner would miss input the first one already buffered
+    private final Scanner scanner = new Scanner(System.in);
 
     public void showWelcome() {
         System.out.println("""
@@ -37,24 +46,42 @@ public class Menu {
                 Use variables in expressions:
                     2*a
                     
+                Variables declared with expressions are updated when the
+                variables they use change:
+                    b=a*2
+                    
+                Declare arrays with ranges (start:step:end), expressions
+                with arrays are evaluated for every element:
+                    x=0:0.1:500
+                    a*sin(f*x)
+                    
+                Use functions (trigonometry in degrees):
+                    sin, cos, tan, atan2(y, x), min(a, b), max(a, b),
+                    pow(a, b), clamp(value, min, max)
+                    
                 Type "plot" to plot functions.
                 Type "exit" to exit the program.
                 """);
     }
 
     public void getInput() {
-        Scanner scanner = new Scanner(System.in);
         String userInput = "";
 
-        DecimalFormat df = new DecimalFormat("#.########");
-        df.setRoundingMode(RoundingMode.CEILING);
+        ResultFormatter resultFormatter = new ResultFormatter();
 
         boolean isRunning = true;
 
         while (isRunning) {
             try {
                 System.out.print("!matlab> ");
-                userInput = scanner.nextLine();
+
+                // Stop at the end of the input (e.g. piped input without "exit") instead of prompting forever
+                if (!this.scanner.hasNextLine()) {
+                    System.out.println();
+                    break;
+                }
+
+                userInput = this.scanner.nextLine();
 
                 // Remove any consecutively entered whitespace from user input
                 userInput = userInput.trim().replaceAll("\\s+", " ");
@@ -71,16 +98,19 @@ public class Menu {
                                                             
                                 \tVAR\tVALUE
                                 \t---\t-----""");
-                        for (Map.Entry<String, Double> exprVar : this.expressionVariables.entrySet()) {
+                        for (Map.Entry<String, Double> exprVar : this.workspace.getExpressionVariables().entrySet()) {
                             System.out.println("\t" + exprVar.getKey() + "\t" + exprVar.getValue());
                         }
+                        for (Map.Entry<String, double[]> arrayVar : this.workspace.getArrayVariables().entrySet()) {
+                            System.out.println("\t" + arrayVar.getKey() + "\t" + Value.of(arrayVar.getValue()));
+                        }
                         System.out.println();
                     }
                     case SHOW_HELP -> showHelp();
                     case PLOT -> plotGraph();
                     case EVALUATE_EXPRESSION -> {
-                        double expressionResult = ShuntingYard.evaluate(userInput, this.expressionVariables);
-                        String formattedExpressionResult = df.format(expressionResult);
+                        Value expressionResult = this.workspace.evaluate(userInput);
+                        String formattedExpressionResult = expressionResult.format(resultFormatter);
                         System.out.println(userInput + "=" + formattedExpressionResult);
                     }
                     case DECLARE_VARIABLE -> {
@@ -89,12 +119,19 @@ public class Menu {
                         String variableName = variableDeclaration.get(0);
                         String variableValue = variableDeclaration.get(1);
 
-                        double evaluatedVariable = storeVariable(variableName, variableValue);
+                        Value evaluatedVariable = storeVariable(variableName, variableValue);
 
                         System.out.println("Stored variable " + variableName + "=" + evaluatedVariable);
+
+                        // Variables declared with expressions that use it
+                        for (String updatedVariable : this.workspace.getUpdatedVariables()) {
+                            System.out.println("Updated variable " + updatedVariable + "=" + this.workspace.get(updatedVariable));
+                        }
                     }
                     case EXIT -> isRunning = false;
                 }
+            } catch (ExpressionException e) {
+                System.out.println("Error in expression: " + "\"" + userInput + "\" (" + e.getMessage() + ").");
             } catch (Exception e) {
                 System.out.println("Error in expression: " + "\"" + userInput + "\".");
             }
@@ -108,20 +145,30 @@ public class Menu {
      *      ----------
      *      a=40, f=10
      *      f(x)=a*sin(f*x)
-     *      step(x)=0.1
+     *      step(x)=1
      *      min(x)=0
      *      max(x)=499
      *
+     *      Tangent:
+     *      --------
+     *      f(x)=10*tan(x)
+     *      step(x)=1
+     *      min(x)=-250
+     *      max(x)=250
+     *
      *      Parabola:
      *      ---------
      *      f(x)=x^2
      *      step(x)=0.1
      *      min(x)=-10
      *      max(x)=11
+     *
+     *      Sine wave over an array (no step, min or max needed):
+     *      -----------------------------------------------------
+     *      a=40, f=10, x=0:1:499
+     *      f(x)=a*sin(f*x)
      */
     private void plotGraph() throws Exception {
-        Scanner scanner = new Scanner(System.in);
-
         System.out.println("""
                 
                 PLOT FUNCTION
@@ -129,32 +176,92 @@ public class Menu {
                 """);
 
         System.out.print("f(x)=");
-        String expression = scanner.nextLine();
+        String expression = this.scanner.nextLine();
+
+        // Parse the function once, then evaluate it for every element of its arrays (e.g. with
+        // x=0:0.1:500), or sample it where the curve needs it over a range of x
+        CompiledExpression compiledExpression = ShuntingYard.compile(expression);
+
+        double[] xs;
+        double[] ys;
+        double minX;
+        double maxX;
+
+        if (this.workspace.usesArrays(compiledExpression)) {
+            ys = this.workspace.evaluateElementwise(compiledExpression);
+            xs = arrayX(ys.length);
+
+            minX = Double.POSITIVE_INFINITY;
+            maxX = Double.NEGATIVE_INFINITY;
+
+            for (double x : xs) {
+                if (isDrawable(x)) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                }
+            }
+        } else {
+            System.out.print("step(x)=");
+            double step = Double.parseDouble(this.scanner.nextLine());
+
+            System.out.print("min(x)=");
+            minX = Double.parseDouble(this.scanner.nextLine());
 
-        System.out.print("step(x)=");
-        double step = Double.parseDouble(scanner.nextLine());
+            System.out.print("max(x)=");
+            maxX = Double.parseDouble(this.scanner.nextLine());
 
-        System.out.print("min(x)=");
-        double min = Double.parseDouble(scanner.nextLine());
+            // The step is the smallest distance between samples and the budget bounds the time a plot takes
+            AdaptiveSampler sampler = new AdaptiveSampler(compiledExpression, "x");
+            sampler.setMinimumStep(step);
+            sampler.setBudget(PLOT_BUDGET);
 
-        System.out.print("max(x)=");
-        double max = Double.parseDouble(scanner.nextLine());
+            // A pixel is worth far more than the error of the fast trigonometric functions
+            sampler.setMathMode(MathMode.FAST);
+
+            AdaptiveSampler.Samples samples = sampler.sample(minX, maxX, this.workspace.getExpressionVariables());
+
+            xs = new double[samples.size()];
+            ys = new double[samples.size()];
+
+            for (int i = 0; i < samples.size(); i++) {
+                xs[i] = samples.getX(i);
+                ys[i] = samples.getY(i);
+            }
+        }
 
         System.out.print("\nGraph location: ");
-        String imageLocation = scanner.nextLine();
+        String imageLocation = this.scanner.nextLine();
 
         Graph graph = new Graph(500, 500);
         graph.setLineColor(PPMColor.RED);
         graph.setBackgroundColor(PPMColor.BLACK);
 
-        for (double x = min; x < max; x += step) {
-            this.expressionVariables.put("x", x);
+        // The viewport is known once all points are evaluated, so the graph can draw them as they are added.
+        // Points where the function is undefined, or too large to be drawn, are left out.
+        int minY = Integer.MAX_VALUE;
+        int maxY = Integer.MIN_VALUE;
 
-            double y = ShuntingYard.evaluate(expression, this.expressionVariables);
+        for (double y : ys) {
+            if (isDrawable(y)) {
+                minY = Math.min(minY, (int) Math.round(y));
+                maxY = Math.max(maxY, (int) Math.round(y));
+            }
+        }
+
+        if (minY <= maxY && minX <= maxX) {
+            graph.setViewport((int) Math.round(minX), (int) Math.round(maxX), minY, maxY);
+        }
+
+        for (int i = 0; i < ys.length; i++) {
+            if (!isDrawable(xs[i]) || !isDrawable(ys[i])) {
+                graph.breakLine();
+                continue;
+            }
 
             // We round the calculated points to whole numbers so
             // that we don't try to plot fractional pixels.
-            graph.addPoint((int) Math.round(x), (int) Math.round(y));
+            // Consecutive points are connected, so a coarse step still gives a continuous curve.
+            graph.addLinePoint((int) Math.round(xs[i]), (int) Math.round(ys[i]));
         }
 
         graph.writeImage(imageLocation);
@@ -162,13 +269,37 @@ public class Menu {
         System.out.println("\nSaved plot to \"" + imageLocation + "\".\n");
     }
 
-    public double storeVariable(String variableName, String variableValue) throws Exception {
-        double evaluatedVariableValue = ShuntingYard.evaluate(variableValue, this.expressionVariables);
-        this.expressionVariables.put(variableName, evaluatedVariableValue);
-        return evaluatedVariableValue;
+    /*
+     * X values for a function of arrays: the elements of x if it is an array of the same length, else the indices
+     */
+    private double[] arrayX(int length) {
+        double[] xs = this.workspace.getArrayVariables().get("x");
+
+        if (xs != null && xs.length == length) {
+            return xs;
+        }
+
+        xs = new double[length];
+
+        for (int i = 0; i < length; i++) {
+            xs[i] = i;
+        }
+
+        return xs;
     }
 
-    public MenuEvent determineEvent(String expr) {
+    private static boolean isDrawable(double value) {
+        return Math.abs(value) < Integer.MAX_VALUE / 2;
+    }
+
+    public Value storeVariable(String variableName, String variableValue) throws Exception {
+        return this.workspace.declare(variableName, variableValue);
+    }
+
+    /*
+     * Classifies a line of input, shared with BatchRunner so both treat the same lines as declarations
+     */
+    public static MenuEvent determineEvent(String expr) {
         if (ExpressionValidator.isVariableDeclaration(expr)) {
             return MenuEvent.DECLARE_VARIABLE;
         }  else if (expr.equals("show variables;")) {
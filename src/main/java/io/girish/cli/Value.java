@@ -0,0 +1,86 @@
+package io.girish.cli;
+
+import io.girish.core.ResultFormatter;
+
+/*
+ * Value of a variable or of an evaluated expression: a single number, or an array of numbers
+ * for variables declared with a range like x=0:0.1:500 and the expressions that use them.
+ */
+public final class Value {
+    // Arrays longer than this are shown with their first and last values only
+    private static final int SHOWN_VALUES = 10;
+
+    private final double scalar;
+    private final double[] array;
+
+    private Value(double scalar, double[] array) {
+        this.scalar = scalar;
+        this.array = array;
+    }
+
+    public static Value of(double scalar) {
+        return new Value(scalar, null);
+    }
+
+    public static Value of(double[] array) {
+        return new Value(Double.NaN, array);
+    }
+
+    public boolean isArray() {
+        return this.array != null;
+    }
+
+    public double getScalar() {
+        return scalar;
+    }
+
+    public double[] getArray() {
+        return array;
+    }
+
+    /*
+     * Appends the value as a result is shown, e.g. "2.5" or "[0, 0.1, 0.2]"
+     */
+    public void format(ResultFormatter resultFormatter, StringBuilder sb) {
+        if (!isArray()) {
+            resultFormatter.formatTo(this.scalar, sb);
+            return;
+        }
+
+        boolean shortened = this.array.length > SHOWN_VALUES;
+
+        sb.append('[');
+
+        for (int i = 0; i < this.array.length; i++) {
+            // Only the first and last values of long arrays
+            if (shortened && i == SHOWN_VALUES / 2) {
+                sb.append("..., ");
+                i = this.array.length - SHOWN_VALUES / 2;
+            }
+
+            resultFormatter.formatTo(this.array[i], sb);
+
+            if (i < this.array.length - 1) {
+                sb.append(", ");
+            }
+        }
+
+        sb.append(']');
+
+        if (shortened) {
+            sb.append(" (").append(this.array.length).append(" values)");
+        }
+    }
+
+    public String format(ResultFormatter resultFormatter) {
+        StringBuilder sb = new StringBuilder();
+        format(resultFormatter, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        // Scalars as they were always shown for stored variables
+        return isArray() ? format(new ResultFormatter()) : Double.toString(this.scalar);
+    }
+}
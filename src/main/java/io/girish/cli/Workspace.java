@@ -0,0 +1,362 @@
+package io.girish.cli;
+
+import io.girish.shuntingyard.CompiledExpression;
+import io.girish.shuntingyard.ExpressionException;
+import io.girish.shuntingyard.ShuntingYard;
+import io.girish.shuntingyard.enums.ErrorKind;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Variables of a REPL or batch session. Numbers are kept in expressionVariables like they always
+ * were, arrays (declared with a range like x=0:0.1:500, or with an expression that uses arrays) in
+ * arrayVariables. A name is in at most one of the two maps.
+ *
+ * An expression that uses arrays is evaluated element-wise in one pass with
+ * CompiledExpression.evaluateBatch: every array is a column and every number is used for all rows,
+ * so a*sin(f*x) with an array x gives the array of a*sin(f*x[i]). All arrays in one expression must
+ * have the same length.
+ *
+ * Variables declared with an expression stay linked to it, like the cells of a spreadsheet: after
+ * a=40 and b=a*2, declaring a=50 also recomputes b. The variables and the variables their definitions
+ * use form a directed acyclic graph. A declaration only recomputes the variables that depend on it,
+ * directly or through others, each once and after everything it uses (in topological order). A
+ * declaration that would make a variable depend on itself through others is rejected before anything
+ * changes. A definition that uses its own name, like x=x+1, takes the current value of the variable
+ * and is not linked, so it keeps working as an update.
+ */
+public class Workspace {
+    private final HashMap<String, Double> expressionVariables = new HashMap<>();
+    private final HashMap<String, double[]> arrayVariables = new HashMap<>();
+
+    // Definition of every variable and the edges of the dependency graph in both directions
+    private final HashMap<String, String> definitions = new HashMap<>();
+    private final HashMap<String, Set<String>> dependencies = new HashMap<>();
+    private final HashMap<String, Set<String>> dependents = new HashMap<>();
+
+    // Variables recomputed by the last declaration, in the order they were recomputed
+    private List<String> updatedVariables = List.of();
+
+    /*
+     * Evaluates an expression, or a range like 0:0.1:500
+     */
+    public Value evaluate(String expression) throws Exception {
+        if (isRange(expression)) {
+            return Value.of(evaluateRange(expression));
+        }
+
+        CompiledExpression compiledExpression = ShuntingYard.getCache().get(expression);
+
+        if (!usesArrays(compiledExpression)) {
+            return Value.of(compiledExpression.evaluate(this.expressionVariables));
+        }
+
+        return Value.of(evaluateElementwise(compiledExpression));
+    }
+
+    /*
+     * Evaluates the definition, stores the result as the variable and recomputes the variables that
+     * depend on it (see getUpdatedVariables)
+     */
+    public Value declare(String variableName, String definition) throws Exception {
+        Set<String> uses = variablesOf(definition);
+
+        // Everything that uses the variable now, directly or through others, in topological order
+        List<String> downstream = downstream(variableName);
+        Set<String> downstreamSet = new HashSet<>(downstream);
+
+        for (String variable : uses) {
+            if (!variable.equals(variableName) && downstreamSet.contains(variable)) {
+                throw new ExpressionException(ErrorKind.CIRCULAR_DEFINITION, -1,
+                        "Circular definition: " + variableName + " uses " + cycle(variableName, variable, downstreamSet));
+            }
+        }
+
+        Value value = evaluate(definition);
+
+        // A definition that uses the variable itself is an update of its current value, not a formula
+        if (uses.contains(variableName)) {
+            uses = Set.of();
+        }
+
+        link(variableName, definition, uses);
+        store(variableName, value);
+
+        List<String> updated = new ArrayList<>();
+
+        for (String variable : downstream) {
+            if (variable.equals(variableName)) {
+                continue;
+            }
+
+            Value variableValue;
+
+            try {
+                variableValue = evaluate(this.definitions.get(variable));
+            } catch (Exception e) {
+                // Like a runtime error in an expression, e.g. arrays that no longer have the same length
+                variableValue = Value.of(Double.NaN);
+            }
+
+            store(variable, variableValue);
+            updated.add(variable);
+        }
+
+        this.updatedVariables = Collections.unmodifiableList(updated);
+
+        return value;
+    }
+
+    private void store(String variableName, Value value) {
+        if (value.isArray()) {
+            this.expressionVariables.remove(variableName);
+            this.arrayVariables.put(variableName, value.getArray());
+        } else {
+            this.arrayVariables.remove(variableName);
+            this.expressionVariables.put(variableName, value.getScalar());
+        }
+    }
+
+    /*
+     * Replaces the edges from the variable to the variables its old definition used
+     */
+    private void link(String variableName, String definition, Set<String> uses) {
+        for (String variable : this.dependencies.getOrDefault(variableName, Set.of())) {
+            this.dependents.get(variable).remove(variableName);
+        }
+
+        for (String variable : uses) {
+            this.dependents.computeIfAbsent(variable, name -> new LinkedHashSet<>()).add(variableName);
+        }
+
+        this.definitions.put(variableName, definition);
+        this.dependencies.put(variableName, uses);
+    }
+
+    /*
+     * The variable and every variable that depends on it, directly or through others, with every variable
+     * after all variables it uses: the reverse of the order in which a depth-first search finishes them
+     */
+    private List<String> downstream(String variableName) {
+        List<String> finished = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+
+        // Stack of variables with the iterator over their dependents, so long chains do not overflow the call stack
+        ArrayDeque<String> variables = new ArrayDeque<>();
+        ArrayDeque<Iterator<String>> iterators = new ArrayDeque<>();
+
+        visited.add(variableName);
+        variables.push(variableName);
+        iterators.push(this.dependents.getOrDefault(variableName, Set.of()).iterator());
+
+        while (!variables.isEmpty()) {
+            Iterator<String> iterator = iterators.peek();
+
+            if (iterator.hasNext()) {
+                String dependent = iterator.next();
+
+                if (visited.add(dependent)) {
+                    variables.push(dependent);
+                    iterators.push(this.dependents.getOrDefault(dependent, Set.of()).iterator());
+                }
+            } else {
+                finished.add(variables.pop());
+                iterators.pop();
+            }
+        }
+
+        Collections.reverse(finished);
+
+        return finished;
+    }
+
+    /*
+     * Shows how the variable that is used depends on the variable being declared, e.g. "b, which uses a"
+     */
+    private String cycle(String variableName, String used, Set<String> downstream) {
+        StringBuilder sb = new StringBuilder(used);
+        String variable = used;
+
+        while (!variable.equals(variableName)) {
+            // One of the variables it uses that leads back to the declared variable
+            for (String next : this.dependencies.get(variable)) {
+                if (downstream.contains(next)) {
+                    variable = next;
+                    break;
+                }
+            }
+
+            sb.append(", which uses ").append(variable);
+        }
+
+        return sb.toString();
+    }
+
+    /*
+     * Names of the variables the definition uses
+     */
+    private static Set<String> variablesOf(String definition) throws Exception {
+        Set<String> variables = new LinkedHashSet<>();
+
+        for (String part : isRange(definition) ? definition.split(":", -1) : new String[]{definition}) {
+            variables.addAll(ShuntingYard.getCache().get(part).getVariables());
+        }
+
+        return variables;
+    }
+
+    /*
+     * Current value of the variable, null if it is not declared
+     */
+    public Value get(String variableName) {
+        double[] array = this.arrayVariables.get(variableName);
+
+        if (array != null) {
+            return Value.of(array);
+        }
+
+        Double variableValue = this.expressionVariables.get(variableName);
+
+        return variableValue == null ? null : Value.of(variableValue);
+    }
+
+    /*
+     * Definition of the variable as it was declared, null if it is not declared
+     */
+    public String getDefinition(String variableName) {
+        return this.definitions.get(variableName);
+    }
+
+    public List<String> getUpdatedVariables() {
+        return updatedVariables;
+    }
+
+    public boolean usesArrays(CompiledExpression compiledExpression) {
+        for (String variable : compiledExpression.getVariables()) {
+            if (this.arrayVariables.containsKey(variable)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /*
+     * Evaluates the expression for every element of the arrays it uses
+     */
+    public double[] evaluateElementwise(CompiledExpression compiledExpression) throws ExpressionException {
+        List<String> variables = compiledExpression.getVariables();
+
+        double[][] columns = new double[compiledExpression.getSymbolTable().size()][];
+        String lengthVariable = null;
+        int length = 1;
+
+        for (String variable : variables) {
+            double[] array = this.arrayVariables.get(variable);
+            Double variableValue = this.expressionVariables.get(variable);
+
+            if (array != null) {
+                if (lengthVariable != null && array.length != length) {
+                    throw new ExpressionException(ErrorKind.LENGTH_MISMATCH, -1, "Arrays " + lengthVariable + " and "
+                            + variable + " differ in length (" + length + " and " + array.length + ")");
+                }
+
+                lengthVariable = variable;
+                length = array.length;
+                columns[compiledExpression.getSlot(variable)] = array;
+            } else if (variableValue != null) {
+                columns[compiledExpression.getSlot(variable)] = new double[]{variableValue};
+            } else {
+                throw new ExpressionException(ErrorKind.UNKNOWN_VARIABLE, -1, "Unknown variable: " + variable);
+            }
+        }
+
+        double[] out = new double[length];
+        compiledExpression.evaluateBatch(columns, out);
+
+        return out;
+    }
+
+    public static boolean isRange(String expression) {
+        return expression.indexOf(':') >= 0;
+    }
+
+    /*
+     * Evaluates a range "start:end" or "start:step:end" whose parts are expressions of numbers
+     */
+    private double[] evaluateRange(String expression) throws Exception {
+        String[] parts = expression.split(":", -1);
+
+        if (parts.length != 2 && parts.length != 3) {
+            throw new ExpressionException(ErrorKind.INVALID_RANGE, -1, "Expected start:end or start:step:end, got " + expression);
+        }
+
+        double[] bounds = new double[parts.length];
+
+        for (int i = 0; i < parts.length; i++) {
+            Value value = evaluate(parts[i]);
+
+            if (value.isArray()) {
+                throw new ExpressionException(ErrorKind.INVALID_RANGE, -1, "Range bounds must be numbers: " + parts[i].trim());
+            }
+
+            bounds[i] = value.getScalar();
+        }
+
+        return parts.length == 2 ? range(bounds[0], 1, bounds[1]) : range(bounds[0], bounds[1], bounds[2]);
+    }
+
+    /*
+     * The values start, start + step, ... up to and including end, like MATLAB's start:step:end.
+     * A step that points away from end gives an empty array. The end is included if it is missed
+     * by no more than the rounding error of the step (e.g. 0:0.1:0.3 has 4 values).
+     */
+    public static double[] range(double start, double step, double end) throws ExpressionException {
+        if (step == 0 || !Double.isFinite(start) || !Double.isFinite(step) || !Double.isFinite(end)) {
+            throw new ExpressionException(ErrorKind.INVALID_RANGE, -1, "Invalid range " + start + ":" + step + ":" + end);
+        }
+
+        double count = Math.floor((end - start) / step + 1e-10) + 1;
+
+        if (count < 1) {
+            return new double[0];
+        }
+
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new ExpressionException(ErrorKind.INVALID_RANGE, -1, "Too many values in range: " + count);
+        }
+
+        double[] values = new double[(int) count];
+
+        // Steps like 0.1 are 1/10: dividing by 10 rounds every value correctly, while 3 * 0.1 is 0.30000000000000004
+        double divisor = 1 / step;
+
+        if (divisor == Math.rint(divisor)) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = start + i / divisor;
+            }
+        } else {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = start + i * step;
+            }
+        }
+
+        return values;
+    }
+
+    public HashMap<String, Double> getExpressionVariables() {
+        return expressionVariables;
+    }
+
+    public HashMap<String, double[]> getArrayVariables() {
+        return arrayVariables;
+    }
+}
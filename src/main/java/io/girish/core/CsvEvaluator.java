@@ -0,0 +1,454 @@
+package io.girish.core;
+
+import io.girish.shuntingyard.CompiledExpression;
+import io.girish.shuntingyard.ExpressionException;
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.MathMode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Evaluates an expression for every row of a CSV file, e.g. one formula over millions of rows of
+ * measurements, and writes one result per line to an output file.
+ *
+ * The first line of the file names the columns. Every variable of the expression is bound to the
+ * column with its name (like the names of the variables a REPL session declares), or else to the
+ * value of that name in the map of expression variables, which is then the same for every row.
+ * Columns that the expression does not use are skipped without being parsed.
+ *
+ * The input is mapped into memory a part of up to 1 GiB at a time, and rows are parsed straight from
+ * the mapping into columns of BLOCK_SIZE rows that are evaluated with CompiledExpression.evaluateBatch.
+ * The results are formatted by a ResultFormatter into a buffered writer, so neither the input nor the
+ * output is ever held in the heap as a whole.
+ *
+ * The CSV is kept simple: fields are separated by commas and cannot be quoted, lines end in "\n" or
+ * "\r\n" and blank lines are skipped. Empty or invalid fields and fields missing at the end of a row
+ * are NaN, so their results are NaN as well, like for any other value the expression cannot handle.
+ */
+public final class CsvEvaluator {
+    // Number of rows that are parsed before they are evaluated together
+    private static final int BLOCK_SIZE = 4096;
+
+    // Largest part of a file that is mapped at once, mappings are limited to 2 GiB each
+    private static final int MAX_MAP_SIZE = 1 << 30;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    // Powers of ten that are exact doubles, see parseNumber
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final CompiledExpression expression;
+
+    private int mapSize = MAX_MAP_SIZE;
+    private MathMode mathMode = MathMode.STRICT;
+    private ProgressListener progressListener;
+
+    /*
+     * Called after every block of rows with the rows evaluated so far and how much of the input was read
+     */
+    public interface ProgressListener {
+        void progress(long rows, long bytesRead, long totalBytes);
+    }
+
+    public CsvEvaluator(CompiledExpression expression) {
+        this.expression = expression;
+    }
+
+    /*
+     * Largest number of bytes mapped at once, every row has to fit into it
+     */
+    public void setMapSize(int mapSize) {
+        if (mapSize < 1 || mapSize > MAX_MAP_SIZE) {
+            throw new IllegalArgumentException("Map size must be between 1 and " + MAX_MAP_SIZE + ": " + mapSize);
+        }
+
+        this.mapSize = mapSize;
+    }
+
+    public void setMathMode(MathMode mathMode) {
+        this.mathMode = mathMode;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /*
+     * Evaluates the expression for every row of the input and writes the results to the output, one per line
+     */
+    public Result evaluate(Path input, Path output, Map<String, Double> expressionVariables) throws IOException, ExpressionException {
+        long start = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ);
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output), StandardCharsets.UTF_8),
+                     OUTPUT_BUFFER_SIZE)) {
+            long size = channel.size();
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(this.mapSize, size));
+            int headerEnd = nextLine(buffer, 0, buffer.limit());
+
+            if (headerEnd < 0) {
+                if (size > this.mapSize) {
+                    throw new IOException("The header of " + input + " is longer than " + this.mapSize + " bytes");
+                }
+                headerEnd = buffer.limit();
+            }
+
+            double[][] columns = new double[this.expression.getSymbolTable().size()][];
+            double[][] fieldColumns = bindColumns(readHeader(buffer, headerEnd), expressionVariables, columns);
+
+            Block block = new Block(fieldColumns, columns, out, size);
+
+            long position = headerEnd;
+
+            // Map the rest of the file part by part, every part ending after the last complete row in it
+            while (position < size) {
+                long remaining = size - position;
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(this.mapSize, remaining));
+
+                int end = buffer.limit();
+
+                if (remaining > this.mapSize) {
+                    end = lastLine(buffer);
+
+                    if (end <= 0) {
+                        throw new IOException("Row at byte " + position + " of " + input + " is longer than " + this.mapSize + " bytes");
+                    }
+                }
+
+                block.parseRows(buffer, end, position);
+                position += end;
+            }
+
+            block.flush(size);
+
+            return new Result(block.rows, System.nanoTime() - start);
+        }
+    }
+
+    private static List<String> readHeader(MappedByteBuffer buffer, int end) {
+        byte[] bytes = new byte[end];
+        buffer.get(0, bytes);
+
+        String header = new String(bytes, StandardCharsets.UTF_8);
+
+        // Byte order mark written by some spreadsheet programs
+        if (header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+
+        List<String> names = new ArrayList<>();
+
+        for (String name : header.split(",", -1)) {
+            names.add(name.trim());
+        }
+
+        return names;
+    }
+
+    /*
+     * Fills the columns, indexed by slot for evaluateBatch, with a block sized column for every variable
+     * that is in the file and a single value for every other one. Returns the column every field of a row
+     * is parsed into, null for the fields that are not used.
+     */
+    private double[][] bindColumns(List<String> names, Map<String, Double> expressionVariables, double[][] columns) throws ExpressionException {
+        double[][] fieldColumns = new double[names.size()][];
+
+        for (String variable : this.expression.getVariables()) {
+            int slot = this.expression.getSlot(variable);
+            int field = names.indexOf(variable);
+
+            if (field >= 0) {
+                columns[slot] = new double[BLOCK_SIZE];
+                fieldColumns[field] = columns[slot];
+                continue;
+            }
+
+            Double variableValue = expressionVariables.get(variable);
+
+            if (variableValue == null) {
+                throw new ExpressionException(ErrorKind.UNKNOWN_VARIABLE, -1, "Unknown variable: " + variable);
+            }
+
+            columns[slot] = new double[]{variableValue};
+        }
+
+        return fieldColumns;
+    }
+
+    /*
+     * Index after the next "\n" from the index, or -1 if there is none before the end
+     */
+    private static int nextLine(MappedByteBuffer buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int lastLine(MappedByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isBlank(MappedByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) > ' ') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Parses the number in [from, to) of the buffer, NaN if the field is empty or not a number.
+     *
+     * Numbers with at most 15 significant digits and a decimal exponent of at most 22 are parsed
+     * directly: the digits and the power of ten are exact doubles, so a single multiplication or division
+     * rounds correctly. Anything else (more digits, large exponents, "NaN", "Infinity") goes through
+     * Double.parseDouble.
+     */
+    static double parseNumber(MappedByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) <= ' ') {
+            from++;
+        }
+        while (to > from && buffer.get(to - 1) <= ' ') {
+            to--;
+        }
+
+        if (from == to) {
+            return Double.NaN;
+        }
+
+        int i = from;
+        boolean negative = false;
+
+        if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean fraction = false;
+
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+
+            if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    mantissa = mantissa * 10 + (b - '0');
+                    significantDigits++;
+                }
+                if (fraction) {
+                    exponent--;
+                }
+                digits++;
+
+                if (significantDigits > 15) {
+                    return parseSlow(buffer, from, to);
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (digits == 0) {
+            return parseSlow(buffer, from, to);
+        }
+
+        if (i < to && (buffer.get(i) == 'e' || buffer.get(i) == 'E')) {
+            i++;
+
+            boolean negativeExponent = false;
+
+            if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+
+            int exponentDigits = 0;
+            int explicitExponent = 0;
+
+            for (; i < to && buffer.get(i) >= '0' && buffer.get(i) <= '9' && exponentDigits < 4; i++, exponentDigits++) {
+                explicitExponent = explicitExponent * 10 + (buffer.get(i) - '0');
+            }
+
+            if (exponentDigits == 0) {
+                return parseSlow(buffer, from, to);
+            }
+
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (i != to || exponent < -22 || exponent > 22) {
+            return parseSlow(buffer, from, to);
+        }
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(MappedByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+
+        try {
+            return Double.parseDouble(new String(bytes, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /*
+     * Rows parsed but not evaluated yet, and where their results go
+     */
+    private final class Block {
+        private final double[][] fieldColumns;
+        private final double[][] columns;
+        private final double[] results = new double[BLOCK_SIZE];
+        private final ResultFormatter resultFormatter = new ResultFormatter();
+        private final BufferedWriter out;
+        private final long totalBytes;
+
+        private int size = 0;
+        private long rows = 0;
+
+        Block(double[][] fieldColumns, double[][] columns, BufferedWriter out, long totalBytes) {
+            this.fieldColumns = fieldColumns;
+            this.columns = columns;
+            this.out = out;
+            this.totalBytes = totalBytes;
+        }
+
+        /*
+         * Parses the rows in [0, end) of the buffer, which starts at the given byte of the file
+         */
+        void parseRows(MappedByteBuffer buffer, int end, long offset) throws IOException {
+            int rowStart = 0;
+
+            while (rowStart < end) {
+                int rowEnd = nextLine(buffer, rowStart, end);
+                int next = rowEnd < 0 ? end : rowEnd;
+
+                if (rowEnd < 0) {
+                    rowEnd = end;
+                }
+
+                if (!isBlank(buffer, rowStart, rowEnd)) {
+                    parseRow(buffer, rowStart, rowEnd);
+
+                    if (this.size == BLOCK_SIZE) {
+                        flush(offset + next);
+                    }
+                }
+
+                rowStart = next;
+            }
+        }
+
+        private void parseRow(MappedByteBuffer buffer, int from, int to) {
+            int field = 0;
+            int fieldStart = from;
+
+            for (int i = from; i <= to; i++) {
+                if (i == to || buffer.get(i) == ',') {
+                    if (field < this.fieldColumns.length && this.fieldColumns[field] != null) {
+                        this.fieldColumns[field][this.size] = parseNumber(buffer, fieldStart, i);
+                    }
+
+                    field++;
+                    fieldStart = i + 1;
+                }
+            }
+
+            // Fields missing at the end of the row
+            for (; field < this.fieldColumns.length; field++) {
+                if (this.fieldColumns[field] != null) {
+                    this.fieldColumns[field][this.size] = Double.NaN;
+                }
+            }
+
+            this.size++;
+        }
+
+        /*
+         * Evaluates the parsed rows and writes their results
+         */
+        void flush(long bytesRead) throws IOException {
+            if (this.size > 0) {
+                CsvEvaluator.this.expression.evaluateBatch(this.columns, this.results, 0, this.size, CsvEvaluator.this.mathMode);
+
+                for (int row = 0; row < this.size; row++) {
+                    this.resultFormatter.formatTo(this.results[row], this.out);
+                    this.out.newLine();
+                }
+
+                this.rows += this.size;
+                this.size = 0;
+            }
+
+            if (CsvEvaluator.this.progressListener != null) {
+                CsvEvaluator.this.progressListener.progress(this.rows, bytesRead, this.totalBytes);
+            }
+        }
+    }
+
+    /*
+     * Number of rows evaluated and how long it took
+     */
+    public static final class Result {
+        private final long rows;
+        private final long elapsedNanos;
+
+        Result(long rows, long elapsedNanos) {
+            this.rows = rows;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getRowsPerSecond() {
+            return this.elapsedNanos > 0 ? this.rows / (this.elapsedNanos / 1e9) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Evaluated %d rows in %.3f s, %.0f rows/s", this.rows, this.elapsedNanos / 1e9, getRowsPerSecond());
+        }
+    }
+}
@@ -1,163 +1,382 @@
 package io.girish.core;
 
-import java.io.FileWriter;
+import io.girish.core.enums.PPMFormat;
+
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /*
  * Graph object that can be used to draw graphs from a list of points.
  * It is able to produce images in PPM (Portable Pixmap) format.
+ *
+ * Points are centered in the image based on the smallest and largest coordinates of the graph (its
+ * viewport). If the viewport is known up front and set with setViewport, points are drawn into the
+ * image as soon as they are added, so memory only depends on the size of the image and not on the
+ * number of points. Otherwise points are kept until writeImage, with the viewport tracked as they
+ * are added.
+ *
+ * Points added with addLinePoint are connected to the previous line point by a line, so a function
+ * sampled with a coarse step still gives a continuous curve; see LineRasterizer for how jumps across
+ * asymptotes are left unconnected. breakLine ends a line, e.g. where the function is undefined.
+ *
+ * The image is an int[] framebuffer with one packed 0xRRGGBB color per pixel (see PPMColor), written
+ * as binary P6 by default or as plain text P3. Colors should be set before points are added.
+ * The framebuffer is only allocated once the first point is drawn.
+ *
+ * Images too large for the heap (e.g. 20000x20000 pixels) can be rendered with writeMappedImage,
+ * which maps the output file into memory and lets a TileRenderer draw strips of columns in parallel
+ * straight into the file, without a framebuffer.
  */
 public class Graph {
-    private String lineColor = PPMColor.RED;
-    private String backgroundColor = PPMColor.WHITE;
+    // Bytes written to the file channel at once
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    // Largest part of a file that is mapped at once, mappings are limited to 2 GiB each
+    private static final int MAX_BAND_SIZE = 1 << 30;
+
+    // Number of columns that a tile of a mapped image covers
+    private static final int TILE_WIDTH = 256;
+
+    private int lineColor = PPMColor.RED;
+    private int backgroundColor = PPMColor.WHITE;
 
     private final int width, height;
-    private final List<List<Integer>> points = new ArrayList<>();
 
-    String ppmHeader;
+    // Color of every pixel, indexed by y * width + x
+    private int[] pixels;
+
+    // Viewport of the graph, either set up front or tracked while points are kept
+    private int minX, maxX, minY, maxY;
+    private boolean hasViewport = false;
+    private boolean streaming = false;
+
+    // Translation that centers the viewport in the image, only valid while streaming
+    private int xTranslation, yTranslation;
+
+    // Connects the line points, created once the viewport is known
+    private LineRasterizer line;
+
+    // Points added without a viewport, as x and y coordinates and whether they are single or line points
+    private static final byte POINT = 0, LINE_POINT = 1, LINE_BREAK = 2;
+
+    private int[] pointXs = new int[0], pointYs = new int[0];
+    private byte[] pointKinds = new byte[0];
+    private int pointCount = 0;
 
     public Graph(int width, int height) {
         this.width = width;
         this.height = height;
-
-         this.ppmHeader = """
-            P3
-            %s %s
-            255
-            """.formatted(width, height);
     }
 
-    public void addPoint(int x, int y) {
-        List<Integer> pair = new ArrayList<>();
-        pair.add(x);
-        pair.add(y);
+    private int[] framebuffer() {
+        if (this.pixels == null) {
+            this.pixels = new int[Math.multiplyExact(this.width, this.height)];
+            Arrays.fill(this.pixels, this.backgroundColor);
+        }
 
-        this.points.add(pair);
+        return this.pixels;
     }
 
-    private int findMinX() {
-        int minX = this.points.get(0).get(0);
-
-        for (List<Integer> point : this.points) {
-            if (point.get(0) < minX) {
-                minX = point.get(0);
+    /*
+     * Sets the smallest and largest coordinates of the points that will be added, and draws all
+     * points from now on straight into the image. Points that were added before are drawn as well.
+     */
+    public void setViewport(int minX, int maxX, int minY, int maxY) {
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.hasViewport = true;
+
+        startStreaming();
+
+        for (int i = 0; i < this.pointCount; i++) {
+            switch (this.pointKinds[i]) {
+                case POINT -> drawPoint(this.pointXs[i], this.pointYs[i]);
+                case LINE_POINT -> addLinePoint(this.pointXs[i], this.pointYs[i]);
+                case LINE_BREAK -> breakLine();
             }
         }
 
-        return minX;
+        this.pointXs = new int[0];
+        this.pointYs = new int[0];
+        this.pointKinds = new byte[0];
+        this.pointCount = 0;
     }
 
-    private int findMaxX() {
-        int maxX = this.points.get(0).get(0);
+    public void addPoint(int x, int y) {
+        if (this.streaming) {
+            drawPoint(x, y);
+        } else {
+            keep(x, y, POINT);
+        }
+    }
 
-        for (List<Integer> point : this.points) {
-            if (point.get(0) > maxX) {
-                maxX = point.get(0);
-            }
+    /*
+     * Adds a point that is connected to the previous line point
+     */
+    public void addLinePoint(int x, int y) {
+        if (this.streaming) {
+            this.line.add(x + this.xTranslation, y + this.yTranslation);
+        } else {
+            keep(x, y, LINE_POINT);
         }
+    }
 
-        return maxX;
+    /*
+     * Ends the current line, the next line point is not connected to the previous one
+     */
+    public void breakLine() {
+        if (this.streaming) {
+            this.line.breakLine();
+        } else if (this.pointCount > 0) {
+            keep(this.pointXs[this.pointCount - 1], this.pointYs[this.pointCount - 1], LINE_BREAK);
+        }
     }
 
-    private int findMinY() {
-        int minY = this.points.get(0).get(1);
+    private void keep(int x, int y, byte kind) {
+        if (!this.hasViewport) {
+            this.minX = this.maxX = x;
+            this.minY = this.maxY = y;
+            this.hasViewport = true;
+        } else {
+            this.minX = Math.min(this.minX, x);
+            this.maxX = Math.max(this.maxX, x);
+            this.minY = Math.min(this.minY, y);
+            this.maxY = Math.max(this.maxY, y);
+        }
 
-        for (List<Integer> point : this.points) {
-            if (point.get(1) < minY) {
-                minY = point.get(1);
-            }
+        if (this.pointCount == this.pointXs.length) {
+            int capacity = Math.max(16, this.pointCount * 2);
+            this.pointXs = Arrays.copyOf(this.pointXs, capacity);
+            this.pointYs = Arrays.copyOf(this.pointYs, capacity);
+            this.pointKinds = Arrays.copyOf(this.pointKinds, capacity);
         }
 
-        return minY;
+        this.pointXs[this.pointCount] = x;
+        this.pointYs[this.pointCount] = y;
+        this.pointKinds[this.pointCount] = kind;
+        this.pointCount++;
     }
 
-    private int findMaxY() {
-        int maxY = this.points.get(0).get(1);
+    /*
+     * Calculates the translation that centers the viewport in the image
+     */
+    private void startStreaming() {
+        this.xTranslation = (this.width / 2) + Math.abs(this.minX) - (((this.maxX - this.minX) / 2));
+        this.yTranslation = (this.height / 2) + Math.abs(this.minY) - (((this.maxY - this.minY) / 2));
+        this.streaming = true;
 
-        for (List<Integer> point : this.points) {
-            if (point.get(1) > maxY) {
-                maxY = point.get(1);
-            }
-        }
+        this.line = new LineRasterizer((x, y) -> framebuffer()[y * this.width + x] = this.lineColor,
+                0, this.width, 0, this.height);
+    }
+
+    private void drawPoint(int x, int y) {
+        // Apply translation to center graph horizontally and vertically
+        int posX = x + this.xTranslation;
+        int posY = y + this.yTranslation;
 
-        return maxY;
+        // Only draw the pixel if point is within image bounds
+        if (posY >= 0 && posY < this.height && posX >= 0 && posX < this.width) {
+            framebuffer()[posY * this.width + posX] = this.lineColor;
+        }
     }
 
     /*
-     * Writes points for graph to an image file in PPM format.
+     * Writes points for graph to an image file in binary PPM format (P6).
      * https://en.wikipedia.org/wiki/Netpbm#PPM_example
      */
-    public void writeImage(String imageLocation) {
-        StringBuilder sb = new StringBuilder();
+    public void writeImage(String imageLocation) throws IOException {
+        writeImage(imageLocation, PPMFormat.P6);
+    }
+
+    public void writeImage(String imageLocation, PPMFormat format) throws IOException {
+        // Points that were kept until now can be drawn now that the viewport is known
+        if (!this.streaming && this.hasViewport) {
+            setViewport(this.minX, this.maxX, this.minY, this.maxY);
+        }
 
-        // Image mapped by height, then width
-        List<List<String>> pixels = new ArrayList<>();
+        // The last segment of a line is only drawn once the line ends
+        if (this.streaming) {
+            this.line.breakLine();
+        }
 
-        // Draw a blank canvas
-        for (int y = 0; y < this.height; y++) {
-            List<String> wp = new ArrayList<>();
-            for (int x = 0; x < this.width; x++) {
-                wp.add(this.getBackgroundColor());
+        try (FileChannel channel = FileChannel.open(Path.of(imageLocation), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+            buffer.put(header(format, this.width, this.height));
+
+            for (int color : framebuffer()) {
+                // Room for the longest pixel, "255 255 255\n" in P3
+                if (buffer.remaining() < 12) {
+                    flush(channel, buffer);
+                }
+
+                if (format == PPMFormat.P6) {
+                    buffer.put((byte) PPMColor.red(color));
+                    buffer.put((byte) PPMColor.green(color));
+                    buffer.put((byte) PPMColor.blue(color));
+                } else {
+                    putComponent(buffer, PPMColor.red(color), (byte) ' ');
+                    putComponent(buffer, PPMColor.green(color), (byte) ' ');
+                    putComponent(buffer, PPMColor.blue(color), (byte) '\n');
+                }
             }
-            pixels.add(wp);
+
+            flush(channel, buffer);
         }
+    }
 
-        // Calculate translation values to center the graph in our image
-        int xTranslation = (this.width / 2) + Math.abs(findMinX()) - (((findMaxX() - findMinX()) / 2));
-        int yTranslation = (this.height / 2) + Math.abs(findMinY()) - (((findMaxY() - findMinY()) / 2));
+    /*
+     * Renders the graph into a binary PPM file (P6) that is mapped into memory, for images that are too
+     * large for the heap. The header is written first, then the background is filled in and the renderer
+     * draws every strip of TILE_WIDTH columns in place; bands of rows and tiles are processed in parallel.
+     * Only points drawn by the renderer end up in the image, so the viewport must be set and points
+     * added with addPoint are not part of it.
+     */
+    public void writeMappedImage(String imageLocation, TileRenderer renderer) throws IOException {
+        if (!this.streaming) {
+            throw new IllegalStateException("The viewport must be set before rendering a mapped image");
+        }
 
-        // Draw calculated coordinates on our image
-        for (List<Integer> point : this.points) {
-            int posX = point.get(0);
-            int posY = point.get(1);
+        byte[] header = header(PPMFormat.P6, this.width, this.height);
+        long rowSize = 3L * this.width;
+        int bandHeight = (int) Math.max(1, Math.min(this.height, MAX_BAND_SIZE / rowSize));
+        int bandCount = (this.height + bandHeight - 1) / bandHeight;
 
-            // Apply translation to center graph horizontally and vertically
-            posX += xTranslation;
-            posY += yTranslation;
+        try (FileChannel channel = FileChannel.open(Path.of(imageLocation), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(header), 0);
 
-            // Only draw the pixel if point is within image bounds
-            if (posY >= 0 && posY < pixels.size() && posX >= 0 && posX < pixels.get(posY).size()) {
-                pixels.get(posY).set(posX, this.getLineColor());
+            MappedByteBuffer[] bands = new MappedByteBuffer[bandCount];
+
+            for (int band = 0; band < bandCount; band++) {
+                int rows = Math.min(bandHeight, this.height - band * bandHeight);
+                bands[band] = channel.map(FileChannel.MapMode.READ_WRITE, header.length + band * bandHeight * rowSize, rows * rowSize);
             }
-        }
 
-        // Construct header for PPM image format
-        sb.append(ppmHeader);
+            // One row of background pixels is copied into every row of the bands
+            byte[] backgroundRow = new byte[(int) rowSize];
 
-        // Create pixels from our graph in PPM format
-        for (int y = 0; y < this.height; y++) {
             for (int x = 0; x < this.width; x++) {
-                String pixel = pixels.get(y).get(x);
-                sb.append(pixel);
+                backgroundRow[x * 3] = (byte) PPMColor.red(this.backgroundColor);
+                backgroundRow[x * 3 + 1] = (byte) PPMColor.green(this.backgroundColor);
+                backgroundRow[x * 3 + 2] = (byte) PPMColor.blue(this.backgroundColor);
             }
+
+            IntStream.range(0, bandCount).parallel().forEach(band -> {
+                ByteBuffer buffer = bands[band].duplicate();
+
+                while (buffer.hasRemaining()) {
+                    buffer.put(backgroundRow);
+                }
+            });
+
+            int tileCount = (this.width + TILE_WIDTH - 1) / TILE_WIDTH;
+
+            IntStream.range(0, tileCount).parallel().forEach(tile -> {
+                // Every tile writes through its own views of the bands
+                ByteBuffer[] views = new ByteBuffer[bandCount];
+
+                for (int band = 0; band < bandCount; band++) {
+                    views[band] = bands[band].duplicate();
+                }
+
+                int fromColumn = tile * TILE_WIDTH;
+                int toColumn = Math.min(this.width, fromColumn + TILE_WIDTH);
+
+                GraphTile graphTile = new GraphTile(views, bandHeight, this.width, this.height, fromColumn, toColumn,
+                        this.xTranslation, this.yTranslation, this.lineColor);
+
+                renderer.render(graphTile);
+
+                // Draws the last segment of the line of the tile
+                graphTile.breakLine();
+            });
+
+            for (MappedByteBuffer band : bands) {
+                band.force();
+            }
+        }
+    }
+
+    /*
+     * Header for PPM image format
+     */
+    static byte[] header(PPMFormat format, int width, int height) {
+        return """
+            %s
+            %s %s
+            255
+            """.formatted(format.name(), width, height).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void putComponent(ByteBuffer buffer, int component, byte separator) {
+        if (component >= 100) {
+            buffer.put((byte) ('0' + component / 100));
+        }
+        if (component >= 10) {
+            buffer.put((byte) ('0' + component / 10 % 10));
         }
+        buffer.put((byte) ('0' + component % 10));
+        buffer.put(separator);
+    }
 
-        // Write constructed PPM to file
-        try {
-            FileWriter fw = new FileWriter(imageLocation);
-            fw.write(sb.toString());
-            fw.close();
-        } catch (IOException e) {
-            System.out.println(e.getMessage());
-            System.exit(1);
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
+
+        buffer.clear();
     }
 
-    public void setLineColor(String lineColor) {
+    public void setLineColor(int lineColor) {
         this.lineColor = lineColor;
     }
 
-    public void setBackgroundColor(String backgroundColor) {
+    /*
+     * Sets the background color, also for pixels of the image that have the current background color
+     */
+    public void setBackgroundColor(int backgroundColor) {
+        for (int i = 0; this.pixels != null && i < this.pixels.length; i++) {
+            if (this.pixels[i] == this.backgroundColor) {
+                this.pixels[i] = backgroundColor;
+            }
+        }
+
         this.backgroundColor = backgroundColor;
     }
 
-    public String getLineColor() {
+    public int getLineColor() {
         return lineColor;
     }
 
-    public String getBackgroundColor() {
+    public int getBackgroundColor() {
         return backgroundColor;
     }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /*
+     * Color of the pixel at the given image coordinates
+     */
+    public int getPixel(int x, int y) {
+        return this.pixels == null ? this.backgroundColor : this.pixels[y * this.width + x];
+    }
 }
@@ -0,0 +1,81 @@
+package io.girish.core;
+
+import java.nio.ByteBuffer;
+
+/*
+ * A strip of columns of a memory-mapped image. Points are given in graph coordinates like for
+ * Graph.addPoint and are written in place into the mapped file; points outside of the strip are
+ * ignored, so every tile only has to draw the x values from getMinX() to getMaxX().
+ *
+ * Lines are clipped to the strip as well. To connect a line across the edges of the strip, the
+ * renderer should also add the line points just before getMinX() and just after getMaxX().
+ */
+public final class GraphTile {
+    private final ByteBuffer[] bands;
+    private final int bandHeight;
+    private final int width, height;
+    private final int fromColumn, toColumn;
+    private final int xTranslation, yTranslation;
+    private final byte red, green, blue;
+
+    private final LineRasterizer line;
+
+    GraphTile(ByteBuffer[] bands, int bandHeight, int width, int height, int fromColumn, int toColumn,
+              int xTranslation, int yTranslation, int lineColor) {
+        this.bands = bands;
+        this.bandHeight = bandHeight;
+        this.width = width;
+        this.height = height;
+        this.fromColumn = fromColumn;
+        this.toColumn = toColumn;
+        this.xTranslation = xTranslation;
+        this.yTranslation = yTranslation;
+        this.red = (byte) PPMColor.red(lineColor);
+        this.green = (byte) PPMColor.green(lineColor);
+        this.blue = (byte) PPMColor.blue(lineColor);
+
+        this.line = new LineRasterizer(this::plot, fromColumn, toColumn, 0, height);
+    }
+
+    /*
+     * Smallest x coordinate of the graph that falls into this tile
+     */
+    public int getMinX() {
+        return this.fromColumn - this.xTranslation;
+    }
+
+    /*
+     * Largest x coordinate of the graph that falls into this tile
+     */
+    public int getMaxX() {
+        return this.toColumn - 1 - this.xTranslation;
+    }
+
+    public void addPoint(int x, int y) {
+        int posX = x + this.xTranslation;
+        int posY = y + this.yTranslation;
+
+        if (posX < this.fromColumn || posX >= this.toColumn || posY < 0 || posY >= this.height) {
+            return;
+        }
+
+        plot(posX, posY);
+    }
+
+    public void addLinePoint(int x, int y) {
+        this.line.add(x + this.xTranslation, y + this.yTranslation);
+    }
+
+    public void breakLine() {
+        this.line.breakLine();
+    }
+
+    private void plot(int posX, int posY) {
+        ByteBuffer band = this.bands[posY / this.bandHeight];
+        int offset = ((posY % this.bandHeight) * this.width + posX) * 3;
+
+        band.put(offset, this.red);
+        band.put(offset + 1, this.green);
+        band.put(offset + 2, this.blue);
+    }
+}
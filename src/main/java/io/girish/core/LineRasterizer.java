@@ -0,0 +1,171 @@
+package io.girish.core;
+
+/*
+ * Connects consecutive points of a path with lines (Bresenham), in image coordinates.
+ *
+ * Sampling a function with a coarse step still gives a continuous curve, but a curve that jumps
+ * across an asymptote (e.g. tan(x) at x = 90) must not be connected. A segment is treated as such a
+ * discontinuity when it goes in the opposite direction of the segments on both sides of it and is
+ * steeper than both: near a pole the values run off to one side and come back from the other, while
+ * a smooth curve that is sampled finely enough changes direction gradually. Deciding a segment
+ * therefore waits for the next point of the path, or for the end of the path.
+ */
+final class LineRasterizer {
+    interface PixelSink {
+        void plot(int x, int y);
+    }
+
+    // Jumps of up to this many pixels are always connected
+    private static final int MIN_JUMP = 2;
+
+    private final PixelSink sink;
+
+    // Pixels outside of [minX, maxX) x [minY, maxY) are not drawn
+    private final int minX, maxX, minY, maxY;
+
+    // Last point of the path, and whether the segment ending in it is still undecided
+    private int lastX, lastY;
+    private boolean hasLast = false;
+    private int pendingX, pendingY;
+    private boolean hasPending = false;
+
+    // Vertical change of the segment before the undecided one
+    private int previousDy;
+    private boolean hasPrevious = false;
+
+    LineRasterizer(PixelSink sink, int minX, int maxX, int minY, int maxY) {
+        this.sink = sink;
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    void add(int x, int y) {
+        plot(x, y);
+
+        if (!this.hasLast) {
+            this.lastX = x;
+            this.lastY = y;
+            this.hasLast = true;
+            return;
+        }
+
+        if (this.hasPending) {
+            decide(true, y - this.lastY);
+
+            this.previousDy = this.lastY - this.pendingY;
+            this.hasPrevious = true;
+        }
+
+        // The segment from the last point to this one is decided once the next point is known
+        this.pendingX = this.lastX;
+        this.pendingY = this.lastY;
+        this.hasPending = true;
+
+        this.lastX = x;
+        this.lastY = y;
+    }
+
+    /*
+     * Ends the path, the next point starts a new one
+     */
+    void breakLine() {
+        if (this.hasPending) {
+            decide(false, 0);
+        }
+
+        this.hasLast = false;
+        this.hasPending = false;
+        this.hasPrevious = false;
+    }
+
+    private void decide(boolean hasNext, int nextDy) {
+        int dy = this.lastY - this.pendingY;
+
+        boolean discontinuity = (this.hasPrevious || hasNext) && Math.abs(dy) > MIN_JUMP
+                && (!this.hasPrevious || reverses(dy, this.previousDy))
+                && (!hasNext || reverses(dy, nextDy));
+
+        if (!discontinuity) {
+            drawLine(this.pendingX, this.pendingY, this.lastX, this.lastY);
+        }
+    }
+
+    private static boolean reverses(int dy, int neighbourDy) {
+        return neighbourDy != 0 && Integer.signum(neighbourDy) != Integer.signum(dy)
+                && Math.abs(dy) > Math.abs(neighbourDy);
+    }
+
+    /*
+     * Bresenham's line algorithm, with the line first clipped to the drawable area (Liang-Barsky)
+     * so that segments reaching far outside of the image do not take long to draw
+     */
+    private void drawLine(int x0, int y0, int x1, int y1) {
+        double dx = (double) x1 - x0;
+        double dy = (double) y1 - y0;
+        double[] range = {0, 1};
+
+        if (!clip(-dx, x0 - this.minX, range) || !clip(dx, this.maxX - 1 - x0, range)
+                || !clip(-dy, y0 - this.minY, range) || !clip(dy, this.maxY - 1 - y0, range)) {
+            return;
+        }
+
+        int fromX = (int) Math.round(x0 + range[0] * dx), fromY = (int) Math.round(y0 + range[0] * dy);
+        int toX = (int) Math.round(x0 + range[1] * dx), toY = (int) Math.round(y0 + range[1] * dy);
+
+        int stepX = Integer.signum(toX - fromX), stepY = Integer.signum(toY - fromY);
+        int distanceX = Math.abs(toX - fromX), distanceY = -Math.abs(toY - fromY);
+        int error = distanceX + distanceY;
+
+        while (true) {
+            plot(fromX, fromY);
+
+            if (fromX == toX && fromY == toY) {
+                break;
+            }
+
+            int doubledError = 2 * error;
+
+            if (doubledError >= distanceY) {
+                error += distanceY;
+                fromX += stepX;
+            }
+            if (doubledError <= distanceX) {
+                error += distanceX;
+                fromY += stepY;
+            }
+        }
+    }
+
+    /*
+     * Narrows the parameter range of the line to the side of one clipping edge, false if nothing is left
+     */
+    private static boolean clip(double p, double q, double[] range) {
+        if (p == 0) {
+            return q >= 0;
+        }
+
+        double t = q / p;
+
+        if (p < 0) {
+            if (t > range[1]) {
+                return false;
+            }
+            range[0] = Math.max(range[0], t);
+        } else {
+            if (t < range[0]) {
+                return false;
+            }
+            range[1] = Math.min(range[1], t);
+        }
+
+        return true;
+    }
+
+    private void plot(int x, int y) {
+        if (x >= this.minX && x < this.maxX && y >= this.minY && y < this.maxY) {
+            this.sink.plot(x, y);
+        }
+    }
+}
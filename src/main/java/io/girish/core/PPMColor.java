@@ -2,20 +2,37 @@ package io.girish.core;
 
 /*
  * Pre-defined color values for use with the PPM (Portable Pixmap) file format.
+ * Colors are packed into an int as 0xRRGGBB.
  */
 public class PPMColor {
     @SuppressWarnings("unused")
-    public static final String RED = "255 0 0\n";
+    public static final int RED = 0xFF0000;
 
     @SuppressWarnings("unused")
-    public static final String GREEN = "0 255 0\n";
+    public static final int GREEN = 0x00FF00;
 
     @SuppressWarnings("unused")
-    public static final String BLUE = "0 0 255\n";
+    public static final int BLUE = 0x0000FF;
 
     @SuppressWarnings("unused")
-    public static final String WHITE = "255 255 255\n";
+    public static final int WHITE = 0xFFFFFF;
 
     @SuppressWarnings("unused")
-    public static final String BLACK = "0 0 0\n";
+    public static final int BLACK = 0x000000;
+
+    public static int rgb(int red, int green, int blue) {
+        return (red & 0xFF) << 16 | (green & 0xFF) << 8 | (blue & 0xFF);
+    }
+
+    public static int red(int color) {
+        return color >>> 16 & 0xFF;
+    }
+
+    public static int green(int color) {
+        return color >>> 8 & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
 }
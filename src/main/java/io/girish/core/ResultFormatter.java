@@ -0,0 +1,200 @@
+package io.girish.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/*
+ * Formats results like DecimalFormat("#.########") with RoundingMode.CEILING, the format of the REPL,
+ * without going through DecimalFormat for ordinary values: the digits are written into a reusable
+ * char[] and can be copied to a Writer or StringBuilder without creating strings.
+ *
+ * Values below 10^7 and integers below 2^53 are formatted directly from the bits of the double.
+ * A result that rounds to zero is written as "0", never "-0", just like evaluate never returns -0.
+ * Everything else (larger fractional values, NaN, infinity) is rare in results and is passed on to
+ * DecimalFormat, so the output is the same for every value.
+ *
+ * A formatter is not thread-safe; use one per thread, e.g. one per REPL or batch.
+ */
+public final class ResultFormatter {
+    private static final int FRACTION_DIGITS = 8;
+    private static final long SCALE = 100_000_000L;
+
+    // Below this the rounding interval of a double is narrower than 10^-8 (see formatFraction)
+    private static final double FRACTION_LIMIT = 1e7;
+    private static final double INTEGER_LIMIT = 0x1p53;
+
+    // DecimalFormat rounds values with no digits in the first 9 fractional places to zero
+    private static final double UNDERFLOW_LIMIT = 1e-9;
+
+    private final DecimalFormat fallback = new DecimalFormat("#.########");
+
+    private final char zeroDigit;
+    private final char decimalSeparator;
+    private final String negativePrefix;
+
+    private char[] buffer = new char[32];
+
+    public ResultFormatter() {
+        this.fallback.setRoundingMode(RoundingMode.CEILING);
+
+        DecimalFormatSymbols symbols = this.fallback.getDecimalFormatSymbols();
+
+        this.zeroDigit = symbols.getZeroDigit();
+        this.decimalSeparator = symbols.getDecimalSeparator();
+        this.negativePrefix = this.fallback.getNegativePrefix();
+    }
+
+    /*
+     * Formats the value into the buffer (see getBuffer) and returns the number of characters written
+     */
+    public int format(double value) {
+        double magnitude = Math.abs(value);
+
+        if (magnitude < FRACTION_LIMIT) {
+            return formatFraction(value < 0, magnitude);
+        }
+
+        if (magnitude < INTEGER_LIMIT && magnitude == Math.rint(magnitude)) {
+            return write(value < 0, (long) magnitude, 0);
+        }
+
+        String formatted = this.fallback.format(value);
+
+        ensureCapacity(formatted.length());
+        formatted.getChars(0, formatted.length(), this.buffer, 0);
+
+        return formatted.length();
+    }
+
+    /*
+     * Buffer holding the characters of the last formatted value, only valid until the next call
+     */
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    public void formatTo(double value, Writer out) throws IOException {
+        // format may replace the buffer, so it is read afterwards
+        int length = format(value);
+        out.write(this.buffer, 0, length);
+    }
+
+    public void formatTo(double value, StringBuilder sb) {
+        int length = format(value);
+        sb.append(this.buffer, 0, length);
+    }
+
+    public String formatToString(double value) {
+        int length = format(value);
+        return new String(this.buffer, 0, length);
+    }
+
+    /*
+     * DecimalFormat rounds the shortest decimal representation of the double (the digits of
+     * Double.toString), not its exact binary value. For a magnitude below 10^7 the rounding interval
+     * of the double is narrower than 10^-8, so it contains at most one multiple of 10^-8, and that
+     * multiple is exactly the shortest representation if it exists. Otherwise the shortest
+     * representation has more than 8 fractional digits and lies strictly between the same two
+     * multiples as the double itself.
+     */
+    private int formatFraction(boolean negative, double magnitude) {
+        if (magnitude < UNDERFLOW_LIMIT) {
+            return write(false, 0, 0);
+        }
+
+        long bits = Double.doubleToRawLongBits(magnitude);
+        int exponent = (int) (bits >>> 52);
+        long mantissa = bits & 0xFFFFFFFFFFFFFL;
+
+        if (exponent == 0) {
+            exponent = 1;
+        } else {
+            mantissa |= 1L << 52;
+        }
+
+        // magnitude = mantissa * 2^-shift, with shift > 0 below FRACTION_LIMIT
+        int shift = 1075 - exponent;
+
+        // floor(magnitude * 10^8) from the 128 bit product mantissa * 10^8
+        long high = Math.multiplyHigh(mantissa, SCALE);
+        long low = mantissa * SCALE;
+        long units;
+
+        if (shift >= 128) {
+            units = 0;
+        } else if (shift >= 64) {
+            units = high >>> (shift - 64);
+        } else {
+            units = (high << (64 - shift)) | (low >>> shift);
+        }
+
+        if (units / (double) SCALE != magnitude) {
+            if ((units + 1) / (double) SCALE == magnitude) {
+                units++;
+            } else if (!negative) {
+                // Digits beyond the 8th fractional digit round up towards positive infinity
+                units++;
+            }
+        }
+
+        return write(negative, units / SCALE, units % SCALE);
+    }
+
+    private int write(boolean negative, long integerPart, long fraction) {
+        ensureCapacity(this.negativePrefix.length() + 20 + 1 + FRACTION_DIGITS);
+
+        int length = 0;
+
+        if (negative && (integerPart != 0 || fraction != 0)) {
+            this.negativePrefix.getChars(0, this.negativePrefix.length(), this.buffer, 0);
+            length = this.negativePrefix.length();
+        }
+
+        length = writeDigits(integerPart, length);
+
+        if (fraction != 0) {
+            int fractionDigits = FRACTION_DIGITS;
+
+            // "#" drops trailing zeros
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                fractionDigits--;
+            }
+
+            this.buffer[length++] = this.decimalSeparator;
+
+            for (int i = length + fractionDigits - 1; i >= length; i--) {
+                this.buffer[i] = (char) (this.zeroDigit + fraction % 10);
+                fraction /= 10;
+            }
+
+            length += fractionDigits;
+        }
+
+        return length;
+    }
+
+    private int writeDigits(long value, int offset) {
+        int digits = 1;
+
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            this.buffer[i] = (char) (this.zeroDigit + value % 10);
+            value /= 10;
+        }
+
+        return offset + digits;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (this.buffer.length < capacity) {
+            this.buffer = new char[Math.max(capacity, this.buffer.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package io.girish.core;
+
+/*
+ * Draws the points of a graph that fall into one tile of a mapped image, see Graph.writeMappedImage.
+ * Tiles are rendered in parallel, so implementations must be safe to call from several threads.
+ */
+@FunctionalInterface
+public interface TileRenderer {
+    void render(GraphTile tile);
+}
@@ -0,0 +1,8 @@
+package io.girish.core.enums;
+
+public enum PPMFormat {
+    // Plain PPM, every color component as ASCII text
+    P3,
+    // Raw PPM, every color component as one byte
+    P6
+}
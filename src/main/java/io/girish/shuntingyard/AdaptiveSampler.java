@@ -0,0 +1,244 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.MathMode;
+
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/*
+ * Samples an expression over a range of one variable for plotting, spending evaluations where the
+ * curve needs them instead of at a fixed step.
+ *
+ * The range is first split into a few intervals. Every interval knows the value at its midpoint, and
+ * the distance of that value from the straight line between the ends of the interval tells how far a
+ * line drawn between the ends would be off. The interval that is off the most is split in two, until
+ * every interval is within the tolerance, intervals cannot get smaller than the minimum step or the
+ * evaluation budget is used up. Smooth curves therefore need few evaluations, sharp features get as
+ * many as they need, and the time a plot takes is bounded by the budget.
+ *
+ * Values that are not finite (e.g. at an asymptote) count as off by an infinite amount, so the
+ * sampler closes in on them up to the minimum step.
+ */
+public final class AdaptiveSampler {
+    // Number of intervals the range is split into before refining. A midpoint can happen to lie on the
+    // line between the ends while the rest of the interval does not (e.g. around an inflection point),
+    // so the initial intervals are kept small enough for that to only hide small deviations.
+    private static final int INITIAL_INTERVALS = 128;
+
+    private final CompiledExpression expression;
+
+    // Slot of the sampled variable, -1 if the expression does not use it
+    private final int slot;
+
+    private double tolerance = 0.5;
+    private double minimumStep = 0;
+    private int budget = 10000;
+    private MathMode mathMode = MathMode.STRICT;
+
+    public AdaptiveSampler(CompiledExpression expression, String variable) {
+        this.expression = expression;
+        this.slot = expression.getSlot(variable);
+    }
+
+    /*
+     * Largest distance between the curve and the lines connecting the samples, in units of the result
+     * (a pixel when plotting with Graph)
+     */
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /*
+     * Intervals are not split any further once they are smaller than this
+     */
+    public void setMinimumStep(double minimumStep) {
+        this.minimumStep = minimumStep;
+    }
+
+    /*
+     * Largest number of evaluations per call to sample
+     */
+    public void setBudget(int budget) {
+        if (budget < 2) {
+            throw new IllegalArgumentException("The budget must allow at least 2 evaluations: " + budget);
+        }
+
+        this.budget = budget;
+    }
+
+    public void setMathMode(MathMode mathMode) {
+        this.mathMode = mathMode;
+    }
+
+    /*
+     * Samples [min, max] with the other variables taken from the map. The samples are sorted by x and
+     * include both ends of the range.
+     */
+    public Samples sample(double min, double max, Map<String, Double> expressionVariables) throws ExpressionException {
+        if (!(max > min)) {
+            throw new IllegalArgumentException("The range must not be empty: [" + min + ", " + max + "]");
+        }
+
+        double[] frame = this.expression.newFrame().getValues();
+
+        for (String variable : this.expression.getVariables()) {
+            int variableSlot = this.expression.getSlot(variable);
+
+            if (variableSlot == this.slot) {
+                continue;
+            }
+
+            Double variableValue = expressionVariables.get(variable);
+
+            if (variableValue == null) {
+                throw new ExpressionException(ErrorKind.UNKNOWN_VARIABLE, -1, "Unknown variable: " + variable);
+            }
+
+            frame[variableSlot] = variableValue;
+        }
+
+        Sampling sampling = new Sampling(frame);
+
+        // Every initial interval costs its midpoint, the first one also its start
+        int intervals = Math.max(1, Math.min(INITIAL_INTERVALS, (this.budget - 1) / 2));
+        double width = (max - min) / intervals;
+
+        Interval[] roots = new Interval[intervals];
+        PriorityQueue<Interval> refinable = new PriorityQueue<>((a, b) -> Double.compare(b.deviation, a.deviation));
+
+        double start = min;
+        double startValue = sampling.evaluate(min);
+
+        for (int i = 0; i < intervals; i++) {
+            double end = i == intervals - 1 ? max : min + (i + 1) * width;
+            double endValue = sampling.evaluate(end);
+
+            roots[i] = sampling.interval(start, startValue, end, endValue);
+            offer(refinable, roots[i]);
+
+            start = end;
+            startValue = endValue;
+        }
+
+        // Splitting an interval costs the midpoints of both halves
+        while (!refinable.isEmpty() && sampling.evaluations + 2 <= this.budget) {
+            Interval interval = refinable.poll();
+
+            interval.left = sampling.interval(interval.start, interval.startValue, interval.middle, interval.middleValue);
+            interval.right = sampling.interval(interval.middle, interval.middleValue, interval.end, interval.endValue);
+
+            offer(refinable, interval.left);
+            offer(refinable, interval.right);
+        }
+
+        Samples samples = new Samples(sampling.evaluations);
+
+        for (Interval root : roots) {
+            root.collect(samples);
+        }
+
+        samples.add(max, roots[intervals - 1].endValue);
+
+        return samples;
+    }
+
+    private void offer(PriorityQueue<Interval> refinable, Interval interval) {
+        if (interval.deviation > this.tolerance && (interval.end - interval.start) / 2 >= this.minimumStep) {
+            refinable.add(interval);
+        }
+    }
+
+    /*
+     * State of one call to sample
+     */
+    private final class Sampling {
+        private final double[] frame;
+        private int evaluations = 0;
+
+        Sampling(double[] frame) {
+            this.frame = frame;
+        }
+
+        double evaluate(double x) {
+            if (AdaptiveSampler.this.slot >= 0) {
+                this.frame[AdaptiveSampler.this.slot] = x;
+            }
+
+            this.evaluations++;
+
+            return AdaptiveSampler.this.expression.evaluate(this.frame, AdaptiveSampler.this.mathMode);
+        }
+
+        Interval interval(double start, double startValue, double end, double endValue) {
+            double middle = start + (end - start) / 2;
+
+            return new Interval(start, startValue, middle, evaluate(middle), end, endValue);
+        }
+    }
+
+    private static final class Interval {
+        final double start, startValue, middle, middleValue, end, endValue;
+
+        // How far the midpoint is from the line between the ends
+        final double deviation;
+
+        Interval left, right;
+
+        Interval(double start, double startValue, double middle, double middleValue, double end, double endValue) {
+            this.start = start;
+            this.startValue = startValue;
+            this.middle = middle;
+            this.middleValue = middleValue;
+            this.end = end;
+            this.endValue = endValue;
+
+            double deviation = Math.abs(middleValue - (startValue + endValue) / 2);
+            this.deviation = Double.isNaN(deviation) ? Double.POSITIVE_INFINITY : deviation;
+        }
+
+        /*
+         * Adds the samples of the interval in order of x, without its end
+         */
+        void collect(Samples samples) {
+            if (this.left == null) {
+                samples.add(this.start, this.startValue);
+                samples.add(this.middle, this.middleValue);
+            } else {
+                this.left.collect(samples);
+                this.right.collect(samples);
+            }
+        }
+    }
+
+    /*
+     * Samples of an expression, sorted by x
+     */
+    public static final class Samples {
+        private final double[] xs, ys;
+        private int size = 0;
+
+        Samples(int capacity) {
+            this.xs = new double[capacity];
+            this.ys = new double[capacity];
+        }
+
+        void add(double x, double y) {
+            this.xs[this.size] = x;
+            this.ys[this.size] = y;
+            this.size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public double getX(int i) {
+            return this.xs[i];
+        }
+
+        public double getY(int i) {
+            return this.ys[i];
+        }
+    }
+}
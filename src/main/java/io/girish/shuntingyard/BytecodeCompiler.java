@@ -0,0 +1,338 @@
+package io.girish.shuntingyard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+/*
+ * Execution engine that turns a postfix program into a JVM class implementing CompiledFunction.
+ *
+ * Every instruction of the program maps to a few bytecode instructions operating on the JVM operand
+ * stack, so the generated applyAsDouble method looks like hand-written straight-line arithmetic
+ * that the JIT can inline and optimize. Classes are defined as hidden classes, which can be
+ * unloaded again once the expression is no longer referenced.
+ */
+final class BytecodeCompiler {
+    private static final String CLASS_NAME = "io/girish/shuntingyard/GeneratedExpression";
+    private static final String INTERFACE_NAME = "io/girish/shuntingyard/CompiledFunction";
+
+    private static final int JAVA_17 = 61;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // JVM instructions used by the generated code
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int WIDE = 0xc4;
+
+    // Local variable 0 is "this", 1 is the vars array, temporaries take two slots each after that
+    private static final int FIRST_TEMPORARY = 2;
+
+    private BytecodeCompiler() {
+    }
+
+    /*
+     * Generates and loads a class for the program. Throws if the class cannot be generated or defined,
+     * e.g. because the program is too large for a single method, or a LinkageError such as a
+     * VerifyError if the JVM rejects the generated class.
+     */
+    static CompiledFunction compile(Program program) throws Exception {
+        byte[] classBytes = generate(program);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+
+        try {
+            return (CompiledFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new Exception("Could not instantiate compiled expression", e);
+        }
+    }
+
+    static byte[] generate(Program program) throws IOException {
+        ConstantPool constantPool = new ConstantPool();
+
+        int thisClass = constantPool.classRef(CLASS_NAME);
+        int superClass = constantPool.classRef("java/lang/Object");
+        int interfaceClass = constantPool.classRef(INTERFACE_NAME);
+
+        int codeAttribute = constantPool.utf8("Code");
+        int constructorName = constantPool.utf8("<init>");
+        int constructorDescriptor = constantPool.utf8("()V");
+        int methodName = constantPool.utf8("applyAsDouble");
+        int methodDescriptor = constantPool.utf8("([D)D");
+
+        byte[] constructorCode = generateConstructor(constantPool);
+        byte[] methodCode = generateMethod(program, constantPool);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(JAVA_17);
+
+        constantPool.write(out);
+
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+
+        // No fields
+        out.writeShort(0);
+
+        out.writeShort(2);
+        writeMethod(out, constructorName, constructorDescriptor, codeAttribute, 1, 1, constructorCode);
+        writeMethod(out, methodName, methodDescriptor, codeAttribute, program.getMaxStack() * 2 + 2,
+                FIRST_TEMPORARY + program.getTemporaries() * 2, methodCode);
+
+        // No class attributes
+        out.writeShort(0);
+
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static byte[] generateConstructor(ConstantPool constantPool) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        code.write(ALOAD_0);
+        writeInstruction(code, INVOKESPECIAL, constantPool.methodRef("java/lang/Object", "<init>", "()V"));
+        code.write(RETURN);
+
+        return code.toByteArray();
+    }
+
+    private static byte[] generateMethod(Program program, ConstantPool constantPool) {
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+        double[] constants = program.getConstants();
+
+        for (int instruction : program.getCode()) {
+            int operand = Program.operand(instruction);
+
+            switch (Program.opcode(instruction)) {
+                case Program.PUSH -> writeInstruction(code, LDC2_W, constantPool.doubleConstant(constants[operand]));
+                case Program.LOAD -> {
+                    code.write(ALOAD_1);
+                    writeInt(code, operand, constantPool);
+                    code.write(DALOAD);
+                }
+                case Program.ADD -> code.write(DADD);
+                case Program.SUBTRACT -> code.write(DSUB);
+                case Program.MULTIPLY -> code.write(DMUL);
+                case Program.DIVIDE -> code.write(DDIV);
+                case Program.NEGATE -> code.write(DNEG);
+                case Program.POWER -> writeMath(code, constantPool, "pow", "(DD)D");
+                case Program.SIN -> {
+                    writeMath(code, constantPool, "toRadians", "(D)D");
+                    writeMath(code, constantPool, "sin", "(D)D");
+                }
+                case Program.COS -> {
+                    writeMath(code, constantPool, "toRadians", "(D)D");
+                    writeMath(code, constantPool, "cos", "(D)D");
+                }
+                case Program.TAN -> {
+                    writeMath(code, constantPool, "toRadians", "(D)D");
+                    writeMath(code, constantPool, "tan", "(D)D");
+                }
+                case Program.STORE -> {
+                    code.write(DUP2);
+                    writeLocal(code, DSTORE, FIRST_TEMPORARY + operand * 2);
+                }
+                case Program.RECALL -> writeLocal(code, DLOAD, FIRST_TEMPORARY + operand * 2);
+                default -> throw new IllegalArgumentException("Unsupported instruction: " + Program.opcode(instruction));
+            }
+        }
+
+        code.write(DRETURN);
+
+        return code.toByteArray();
+    }
+
+    private static void writeMath(ByteArrayOutputStream code, ConstantPool constantPool, String name, String descriptor) {
+        writeInstruction(code, INVOKESTATIC, constantPool.methodRef("java/lang/Math", name, descriptor));
+    }
+
+    private static void writeInt(ByteArrayOutputStream code, int value, ConstantPool constantPool) {
+        if (value <= 5) {
+            code.write(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(value);
+        } else if (value <= Short.MAX_VALUE) {
+            writeInstruction(code, SIPUSH, value);
+        } else {
+            writeInstruction(code, LDC_W, constantPool.intConstant(value));
+        }
+    }
+
+    private static void writeLocal(ByteArrayOutputStream code, int opcode, int local) {
+        if (local > 255) {
+            code.write(WIDE);
+            writeInstruction(code, opcode, local);
+        } else {
+            code.write(opcode);
+            code.write(local);
+        }
+    }
+
+    private static void writeInstruction(ByteArrayOutputStream code, int opcode, int operand) {
+        code.write(opcode);
+        code.write(operand >>> 8);
+        code.write(operand);
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeAttribute,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        if (code.length > 65535 || maxStack > 65535) {
+            throw new IOException("Expression is too large to compile to a single method");
+        }
+
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+
+        // Only the Code attribute
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+
+        // No exception table and no attributes for the code
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /*
+     * Constant pool of the generated class, entries are deduplicated by their content
+     */
+    private static final class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int DOUBLE = 6;
+        private static final int CLASS = 7;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final HashMap<String, Integer> entries = new HashMap<>();
+
+        // Constant pool indices start at 1
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, () -> {
+                this.out.writeByte(UTF8);
+                this.out.writeUTF(value);
+            });
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 1, () -> {
+                this.out.writeByte(INTEGER);
+                this.out.writeInt(value);
+            });
+        }
+
+        int doubleConstant(double value) {
+            // Doubles take up two constant pool entries
+            return entry("D" + Double.doubleToRawLongBits(value), 2, () -> {
+                this.out.writeByte(DOUBLE);
+                this.out.writeDouble(value);
+            });
+        }
+
+        int classRef(String name) {
+            int nameIdx = utf8(name);
+
+            return entry("C" + name, 1, () -> {
+                this.out.writeByte(CLASS);
+                this.out.writeShort(nameIdx);
+            });
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIdx = classRef(owner);
+            int nameIdx = utf8(name);
+            int descriptorIdx = utf8(descriptor);
+
+            int nameAndTypeIdx = entry("N" + name + descriptor, 1, () -> {
+                this.out.writeByte(NAME_AND_TYPE);
+                this.out.writeShort(nameIdx);
+                this.out.writeShort(descriptorIdx);
+            });
+
+            return entry("M" + owner + "." + name + descriptor, 1, () -> {
+                this.out.writeByte(METHOD_REF);
+                this.out.writeShort(ownerIdx);
+                this.out.writeShort(nameAndTypeIdx);
+            });
+        }
+
+        private int entry(String key, int size, EntryWriter writer) {
+            Integer idx = this.entries.get(key);
+
+            if (idx != null) {
+                return idx;
+            }
+
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            idx = this.count;
+            this.count += size;
+            this.entries.put(key, idx);
+
+            return idx;
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            if (this.count > 65535) {
+                throw new IOException("Too many constants in expression");
+            }
+
+            this.out.flush();
+
+            classOut.writeShort(this.count);
+            this.bytes.writeTo(classOut);
+        }
+
+        private interface EntryWriter {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.ExecutionMode;
+import io.girish.shuntingyard.enums.MathMode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * An expression that has already been tokenized and converted to postfix/Reverse Polish Notation (RPN).
+ * Evaluating it only runs the RPN stage, so the same expression can be evaluated many times
+ * (e.g. once per sample when plotting) while paying the parsing cost only once.
+ *
+ * Variable names are resolved to slots of a SymbolTable at compile time. The fastest way to
+ * evaluate is with a VariableFrame or a double[] indexed by those slots; evaluating with a
+ * map of variable names binds the map to a frame first.
+ *
+ * By default the program is run by an interpreter. withExecutionMode(ExecutionMode.COMPILED) returns
+ * a copy that runs the expression as a generated JVM class instead, which pays off for expressions that
+ * are evaluated very often. If the class cannot be generated the copy keeps using the interpreter.
+ *
+ * Trigonometric functions are evaluated with Math.sin etc. unless MathMode.FAST is passed to
+ * evaluate or evaluateBatch, which uses the FastTrig approximations for that call. Fast evaluation
+ * always runs on the interpreter, since the generated classes only implement the strict functions.
+ *
+ * Instances are immutable and are created with ShuntingYard.compile(String).
+ *
+ * Errors: syntax errors are reported once by ShuntingYard.compile. Evaluating never throws for bad
+ * values; domain errors (e.g. 0/0) follow IEEE 754 and come back as NaN or an infinity, and variables
+ * without a value are NaN in a frame. Only evaluate(Map) reports a missing variable as an exception;
+ * evaluateOrNaN(Map) returns NaN instead, for bulk jobs where rows may be incomplete.
+ *
+ * Thread safety: a CompiledExpression can be shared freely between threads. Evaluating it only reads
+ * the immutable program; the stack and temporaries live in a scratch array owned by the calling
+ * thread (evaluations started by a function during a call get their own), and variable values come
+ * from the caller (a map, a frame or columns). Callers must not
+ * share a VariableFrame or a double[] frame between threads while they are being written, so
+ * every thread should use its own frame, e.g. one created with newFrame() per thread or per call.
+ */
+public final class CompiledExpression {
+    // Evaluation stacks and frames are reused per thread so that evaluating does not allocate
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final List<Token> postfix;
+    private final SymbolTable symbolTable;
+    private final Program program;
+    private final List<String> variables;
+    private final List<String> optimizations;
+
+    // Only set when running in ExecutionMode.COMPILED
+    private final CompiledFunction compiledFunction;
+
+    CompiledExpression(List<Token> postfix, SymbolTable symbolTable, boolean optimize, List<String> optimizations) throws Exception {
+        this.postfix = Collections.unmodifiableList(new ArrayList<>(postfix));
+        this.symbolTable = symbolTable;
+
+        List<String> report = new ArrayList<>(optimizations);
+
+        this.program = Program.fromPostfix(this.postfix, symbolTable, optimize ? report : null);
+
+        List<String> variables = new ArrayList<>();
+
+        for (int slot : this.program.getVariableSlots()) {
+            variables.add(symbolTable.nameOf(slot));
+        }
+
+        this.variables = Collections.unmodifiableList(variables);
+        this.optimizations = Collections.unmodifiableList(report);
+        this.compiledFunction = null;
+    }
+
+    private CompiledExpression(CompiledExpression source, CompiledFunction compiledFunction) {
+        this.postfix = source.postfix;
+        this.symbolTable = source.symbolTable;
+        this.program = source.program;
+        this.variables = source.variables;
+        this.optimizations = source.optimizations;
+        this.compiledFunction = compiledFunction;
+    }
+
+    /*
+     * Returns a copy of this expression that is evaluated by the given execution engine.
+     * Falls back to the interpreter if the expression cannot be compiled to a JVM class.
+     */
+    public CompiledExpression withExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == getExecutionMode()) {
+            return this;
+        }
+
+        if (executionMode == ExecutionMode.INTERPRETED) {
+            return new CompiledExpression(this, null);
+        }
+
+        try {
+            return new CompiledExpression(this, BytecodeCompiler.compile(this.program));
+        } catch (Exception | LinkageError e) {
+            // LinkageError if the JVM rejects the generated class, e.g. a VerifyError or ClassFormatError
+            return this;
+        }
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return this.compiledFunction == null ? ExecutionMode.INTERPRETED : ExecutionMode.COMPILED;
+    }
+
+    /*
+     * Evaluates the expression with values taken from the frame, indexed by the slots of getSymbolTable()
+     */
+    public double evaluate(double[] frame) {
+        return evaluate(frame, MathMode.STRICT);
+    }
+
+    public double evaluate(double[] frame, MathMode mathMode) {
+        double result;
+
+        if (this.compiledFunction != null && mathMode == MathMode.STRICT) {
+            result = this.compiledFunction.applyAsDouble(frame);
+        } else {
+            Scratch scratch = SCRATCH.get();
+            boolean shared = !scratch.stackInUse;
+            double[] stack = shared ? scratch.stack(this.program.getScratchSize()) : new double[this.program.getScratchSize()];
+
+            // A function called by the program may evaluate another expression on this thread
+            scratch.stackInUse = true;
+
+            try {
+                result = this.program.execute(frame, stack, mathMode);
+            } finally {
+                scratch.stackInUse = !shared;
+            }
+        }
+
+        return result == -0 ? 0 : result;
+    }
+
+    public double evaluate(VariableFrame frame) {
+        return evaluate(frame.getValues(this.program.getFrameSize()));
+    }
+
+    public double evaluate(Map<String, Double> expressionVariables) throws ExpressionException {
+        Scratch scratch = SCRATCH.get();
+        boolean shared = !scratch.frameInUse;
+        double[] frame = shared ? scratch.frame(this.program.getFrameSize()) : new double[this.program.getFrameSize()];
+
+        scratch.frameInUse = true;
+
+        try {
+            int missing = bind(expressionVariables, frame);
+
+            if (missing >= 0) {
+                throw new ExpressionException(ErrorKind.UNKNOWN_VARIABLE, -1, "Unknown variable: " + this.variables.get(missing));
+            }
+
+            return evaluate(frame);
+        } finally {
+            scratch.frameInUse = !shared;
+        }
+    }
+
+    /*
+     * Like evaluate(Map), but returns NaN instead of throwing when a variable has no value
+     */
+    public double evaluateOrNaN(Map<String, Double> expressionVariables) {
+        Scratch scratch = SCRATCH.get();
+        boolean shared = !scratch.frameInUse;
+        double[] frame = shared ? scratch.frame(this.program.getFrameSize()) : new double[this.program.getFrameSize()];
+
+        scratch.frameInUse = true;
+
+        try {
+            return bind(expressionVariables, frame) < 0 ? evaluate(frame) : Double.NaN;
+        } finally {
+            scratch.frameInUse = !shared;
+        }
+    }
+
+    /*
+     * Name of the first variable of the expression that has no value in the map, or null if all have one.
+     * Allows checking the variables once up front instead of once per evaluation.
+     */
+    public String findMissingVariable(Map<String, Double> expressionVariables) {
+        for (String variable : this.variables) {
+            if (expressionVariables.get(variable) == null) {
+                return variable;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+     * Copies the values of the variables into the frame. Returns the index in getVariables()
+     * of the first variable without a value, or -1 if all of them have one.
+     */
+    private int bind(Map<String, Double> expressionVariables, double[] frame) {
+        int[] slots = this.program.getVariableSlots();
+
+        for (int i = 0; i < slots.length; i++) {
+            Double variableValue = expressionVariables.get(this.variables.get(i));
+
+            if (variableValue == null) {
+                return i;
+            }
+
+            frame[slots[i]] = variableValue;
+        }
+
+        return -1;
+    }
+
+    /*
+     * Evaluates the expression for every row, out[row] receives the result of the values columns[slot][row].
+     * The number of rows is the length of out. Columns are indexed by the slots of getSymbolTable(); a
+     * column with a single value is used for every row, e.g. for a variable that does not change.
+     */
+    public void evaluateBatch(double[][] columns, double[] out) {
+        evaluateBatch(columns, out, 0, out.length, MathMode.STRICT);
+    }
+
+    /*
+     * Evaluates the rows [from, to) of the columns into the same rows of out
+     */
+    public void evaluateBatch(double[][] columns, double[] out, int from, int to) {
+        evaluateBatch(columns, out, from, to, MathMode.STRICT);
+    }
+
+    public void evaluateBatch(double[][] columns, double[] out, int from, int to, MathMode mathMode) {
+        int[] slots = this.program.getVariableSlots();
+
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+
+            if (slot >= columns.length || columns[slot] == null) {
+                throw new IllegalArgumentException("Missing column for variable: " + this.variables.get(i));
+            }
+
+            if (columns[slot].length != 1 && columns[slot].length < to) {
+                throw new IllegalArgumentException("Column for variable " + this.variables.get(i) + " has "
+                        + columns[slot].length + " rows, expected " + to);
+            }
+        }
+
+        if (this.compiledFunction != null && mathMode == MathMode.STRICT) {
+            double[] frame = new double[this.program.getFrameSize()];
+
+            for (int row = from; row < to; row++) {
+                for (int slot : slots) {
+                    double[] column = columns[slot];
+                    frame[slot] = column.length == 1 ? column[0] : column[row];
+                }
+
+                out[row] = this.compiledFunction.applyAsDouble(frame);
+            }
+        } else {
+            this.program.executeBatch(columns, out, from, to, mathMode);
+        }
+
+        for (int row = from; row < to; row++) {
+            out[row] = out[row] == -0 ? 0 : out[row];
+        }
+    }
+
+    /*
+     * Stack and frame of the evaluations running on one thread. While they are in use, evaluations that
+     * are started from within (by a function that evaluates another expression) get arrays of their own,
+     * so they cannot overwrite the values of the evaluation that called them.
+     */
+    private static final class Scratch {
+        private double[] stack = new double[16];
+        private double[] frame = new double[16];
+        private boolean stackInUse;
+        private boolean frameInUse;
+
+        double[] stack(int size) {
+            if (this.stack.length < size) {
+                this.stack = new double[size];
+            }
+
+            return this.stack;
+        }
+
+        double[] frame(int size) {
+            if (this.frame.length < size) {
+                this.frame = new double[size];
+            }
+
+            return this.frame;
+        }
+    }
+
+    /*
+     * Creates a frame for the symbol table of this expression with all variables unset (NaN)
+     */
+    public VariableFrame newFrame() {
+        return this.symbolTable.newFrame();
+    }
+
+    /*
+     * Returns the slot of a variable in frames for this expression, or -1 if it is unknown
+     */
+    public int getSlot(String variableName) {
+        return this.symbolTable.slotOf(variableName);
+    }
+
+    /*
+     * Names of the variables used by the expression, in order of first use
+     */
+    public List<String> getVariables() {
+        return this.variables;
+    }
+
+    /*
+     * Descriptions of the simplifications made while compiling, e.g. "folded (2 * 3) to 6.0"
+     * or "shared sin((f * x)) (used 2 times)"
+     */
+    public List<String> getOptimizations() {
+        return this.optimizations;
+    }
+
+    public SymbolTable getSymbolTable() {
+        return this.symbolTable;
+    }
+
+    public List<Token> getPostfix() {
+        return this.postfix;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Token token : this.postfix) {
+            if (sb.length() != 0) {
+                sb.append(' ');
+            }
+            sb.append(token.getValue());
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,9 @@
+package io.girish.shuntingyard;
+
+/*
+ * An expression compiled to a JVM class. The variable values are indexed by slot,
+ * like the frames passed to CompiledExpression.evaluate(double[]).
+ */
+public interface CompiledFunction {
+    double applyAsDouble(double[] vars);
+}
@@ -0,0 +1,114 @@
+package io.girish.shuntingyard;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded least-recently-used cache of compiled expressions, keyed by the expression text
+ * with whitespace removed (whitespace has no meaning to the Tokenizer).
+ *
+ * The cache is safe to use from multiple threads. Lookups only hold the lock for the map access
+ * itself; compiling a missing expression happens outside of it, so two threads missing the same
+ * expression at the same time may both compile it and the last one wins.
+ */
+public final class ExpressionCache {
+    private final int maximumSize;
+    private final LinkedHashMap<String, CompiledExpression> expressions;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ExpressionCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1: " + maximumSize);
+        }
+
+        this.maximumSize = maximumSize;
+
+        // Access order makes the eldest entry the least recently used one
+        this.expressions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+                if (size() > ExpressionCache.this.maximumSize) {
+                    ExpressionCache.this.evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     * Returns the compiled expression, compiling and caching it if it is not cached yet
+     */
+    public CompiledExpression get(String expression) throws Exception {
+        String key = normalize(expression);
+
+        CompiledExpression compiledExpression;
+
+        synchronized (this.expressions) {
+            compiledExpression = this.expressions.get(key);
+        }
+
+        if (compiledExpression != null) {
+            this.hits.increment();
+            return compiledExpression;
+        }
+
+        this.misses.increment();
+
+        compiledExpression = ShuntingYard.compile(key);
+
+        synchronized (this.expressions) {
+            this.expressions.put(key, compiledExpression);
+        }
+
+        return compiledExpression;
+    }
+
+    private static String normalize(String expression) {
+        for (int i = 0; i < expression.length(); i++) {
+            if (Character.isWhitespace(expression.charAt(i))) {
+                return expression.replaceAll("\\s", "");
+            }
+        }
+
+        return expression;
+    }
+
+    public void clear() {
+        synchronized (this.expressions) {
+            this.expressions.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.expressions) {
+            return this.expressions.size();
+        }
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + size() + "/" + this.maximumSize + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
@@ -0,0 +1,33 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.ErrorKind;
+
+/*
+ * Error in an expression, with the kind of error and the position in the expression text where it
+ * was found (-1 if it is not tied to a position, e.g. for an unknown variable).
+ *
+ * Syntax errors are only ever thrown while compiling. Evaluating never throws for bad values:
+ * domain errors such as 0/0 or tan(90) come back as NaN or an infinity, and rows with missing
+ * variables can be evaluated as NaN with CompiledExpression.evaluateOrNaN. Exceptions for unknown
+ * variables are created without a stack trace, so they stay cheap where they are still thrown.
+ */
+public class ExpressionException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    private final ErrorKind kind;
+    private final int position;
+
+    public ExpressionException(ErrorKind kind, int position, String message) {
+        super(message, null, false, kind.isSyntaxError());
+        this.kind = kind;
+        this.position = position;
+    }
+
+    public ErrorKind getKind() {
+        return kind;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
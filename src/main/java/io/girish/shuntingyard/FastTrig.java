@@ -0,0 +1,91 @@
+package io.girish.shuntingyard;
+
+/*
+ * Approximations of the trigonometric functions in degrees, used when evaluating with MathMode.FAST.
+ *
+ * Angles are reduced to [0, 90] degrees and looked up in a table of sines with a step of 1/32 degree,
+ * interpolating linearly between the two nearest entries. The interpolation error is at most
+ * h^2 / 8 for a step of h radians, so the absolute error of sin and cos is below 4e-8 (ERROR_BOUND).
+ * tan is sin / cos, so its relative error stays below 1e-7 away from the asymptotes at 90 + k * 180
+ * degrees, e.g. for angles within 80 degrees of a multiple of 180.
+ *
+ * That is far more than enough for plotting, where a pixel is worth about 1e-3 of the range, and
+ * avoids the argument reduction and polynomial evaluation of Math.sin for every sample. Angles that
+ * are multiples of 90 degrees give exact results, e.g. sin(180) is 0 rather than 1.2e-16.
+ */
+public final class FastTrig {
+    // Largest absolute error of sin and cos compared to Math.sin(Math.toRadians(degrees))
+    public static final double ERROR_BOUND = 4e-8;
+
+    private static final int STEPS_PER_DEGREE = 32;
+
+    // sin of 0 to 90 degrees in steps of 1/32 degree, with one extra entry for interpolating at 90 degrees
+    private static final double[] SINES = new double[90 * STEPS_PER_DEGREE + 2];
+
+    static {
+        for (int i = 0; i < SINES.length; i++) {
+            SINES[i] = Math.sin(Math.toRadians((double) i / STEPS_PER_DEGREE));
+        }
+
+        SINES[90 * STEPS_PER_DEGREE] = 1;
+    }
+
+    private FastTrig() {
+    }
+
+    public static double sin(double degrees) {
+        if (!Double.isFinite(degrees)) {
+            return Double.NaN;
+        }
+
+        // The remainder is exact, so large angles do not lose precision while reducing
+        double angle = degrees % 360;
+
+        if (angle < 0) {
+            angle += 360;
+        }
+
+        if (angle <= 90) {
+            return lookup(angle);
+        } else if (angle <= 180) {
+            return lookup(180 - angle);
+        } else if (angle <= 270) {
+            return -lookup(angle - 180);
+        } else {
+            return -lookup(360 - angle);
+        }
+    }
+
+    public static double cos(double degrees) {
+        if (!Double.isFinite(degrees)) {
+            return Double.NaN;
+        }
+
+        double angle = Math.abs(degrees % 360);
+
+        if (angle <= 90) {
+            return lookup(90 - angle);
+        } else if (angle <= 180) {
+            return -lookup(angle - 90);
+        } else if (angle <= 270) {
+            return -lookup(270 - angle);
+        } else {
+            return lookup(angle - 270);
+        }
+    }
+
+    public static double tan(double degrees) {
+        return sin(degrees) / cos(degrees);
+    }
+
+    /*
+     * Interpolated sine of an angle in [0, 90] degrees
+     */
+    private static double lookup(double angle) {
+        double position = angle * STEPS_PER_DEGREE;
+        int index = (int) position;
+        double fraction = position - index;
+
+        return SINES[index] + fraction * (SINES[index + 1] - SINES[index]);
+    }
+}
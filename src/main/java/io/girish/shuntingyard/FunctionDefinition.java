@@ -0,0 +1,57 @@
+package io.girish.shuntingyard;
+
+/*
+ * A function registered in a FunctionRegistry.
+ *
+ * A pure function always returns the same result for the same arguments and has no side effects,
+ * so calls with constant arguments can be folded at compile time and repeated calls with the same
+ * arguments can be computed once. Functions that are not pure (e.g. random numbers) are always called.
+ */
+public final class FunctionDefinition {
+    private final int id;
+    private final String name;
+    private final int arity;
+    private final boolean pure;
+    private final MathFunction implementation;
+
+    // Program opcode that evaluates the function without a call, -1 if it is called through Program.CALL
+    private final int opcode;
+
+    FunctionDefinition(int id, String name, int arity, boolean pure, MathFunction implementation, int opcode) {
+        this.id = id;
+        this.name = name;
+        this.arity = arity;
+        this.pure = pure;
+        this.implementation = implementation;
+        this.opcode = opcode;
+    }
+
+    public double apply(double[] arguments, int offset) {
+        return this.implementation.apply(arguments, offset);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    public boolean isPure() {
+        return pure;
+    }
+
+    int getOpcode() {
+        return opcode;
+    }
+
+    @Override
+    public String toString() {
+        return this.name + "/" + this.arity;
+    }
+}
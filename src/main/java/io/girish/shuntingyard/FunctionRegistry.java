@@ -0,0 +1,126 @@
+package io.girish.shuntingyard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/*
+ * Functions that expressions can call, looked up by name (ignoring case) while tokenizing.
+ *
+ * Every function gets an integer id when it is registered. The tokenizer binds every call to its
+ * definition once, and compiled programs dispatch calls through an array instead of comparing names.
+ * Functions cannot be removed or replaced, so expressions that were already compiled keep working.
+ *
+ * The default registry contains the trigonometric functions in degrees (sin, cos, tan), min, max,
+ * pow, atan2 (in degrees, like the other trigonometric functions) and clamp(value, min, max).
+ * Registering is synchronized, so a registry can be extended while other threads compile.
+ *
+ * The default registry (getDefault) cannot be extended: it decides how every expression compiled
+ * without a registry is tokenized, and those are cached by their text alone (see ShuntingYard.getCache),
+ * so a new name like "ab" would make cached and freshly compiled expressions disagree. Custom functions
+ * go into a registry created with withDefaults() that is passed to ShuntingYard.compile.
+ */
+public final class FunctionRegistry {
+    private static final FunctionRegistry DEFAULT = withDefaults().unmodifiable();
+
+    // Unary minus in front of anything but a number, emitted by the Tokenizer. It is not part of any
+    // registry, so it cannot be called by name.
+    static final FunctionDefinition NEGATE = new FunctionDefinition(-1, "-", 1, true, (args, i) -> -args[i], Program.NEGATE);
+
+    private final HashMap<String, FunctionDefinition> functions = new HashMap<>();
+    private final List<FunctionDefinition> definitions = new ArrayList<>();
+
+    private boolean modifiable = true;
+
+    /*
+     * Registry used by ShuntingYard.compile when no registry is given, which cannot be extended
+     */
+    public static FunctionRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /*
+     * Creates a new registry with the default functions
+     */
+    public static FunctionRegistry withDefaults() {
+        FunctionRegistry registry = new FunctionRegistry();
+
+        registry.register("sin", 1, true, (args, i) -> Math.sin(Math.toRadians(args[i])), Program.SIN);
+        registry.register("cos", 1, true, (args, i) -> Math.cos(Math.toRadians(args[i])), Program.COS);
+        registry.register("tan", 1, true, (args, i) -> Math.tan(Math.toRadians(args[i])), Program.TAN);
+        registry.register("pow", 2, true, (args, i) -> Math.pow(args[i], args[i + 1]), Program.POWER);
+        registry.register("min", true, Math::min);
+        registry.register("max", true, Math::max);
+        registry.register("atan2", 2, true, (args, i) -> Math.toDegrees(Math.atan2(args[i], args[i + 1])));
+        registry.register("clamp", 3, true, (args, i) -> Math.min(Math.max(args[i], args[i + 1]), args[i + 2]));
+
+        return registry;
+    }
+
+    private FunctionRegistry unmodifiable() {
+        this.modifiable = false;
+        return this;
+    }
+
+    public int register(String name, boolean pure, DoubleUnaryOperator implementation) {
+        return register(name, 1, pure, (args, i) -> implementation.applyAsDouble(args[i]));
+    }
+
+    public int register(String name, boolean pure, DoubleBinaryOperator implementation) {
+        return register(name, 2, pure, (args, i) -> implementation.applyAsDouble(args[i], args[i + 1]));
+    }
+
+    /*
+     * Registers a function and returns its id. Names are letters optionally followed by digits
+     * (e.g. "atan2") and must not be registered already.
+     */
+    public int register(String name, int arity, boolean pure, MathFunction implementation) {
+        return register(name, arity, pure, implementation, -1);
+    }
+
+    private synchronized int register(String name, int arity, boolean pure, MathFunction implementation, int opcode) {
+        if (!this.modifiable) {
+            throw new UnsupportedOperationException("The default registry cannot be changed, register \"" + name
+                    + "\" in a registry created with FunctionRegistry.withDefaults()");
+        }
+
+        if (!name.matches("[A-Za-z]+[0-9]*")) {
+            throw new IllegalArgumentException("Function names must be letters optionally followed by digits: \"" + name + "\"");
+        }
+
+        if (arity < 1) {
+            throw new IllegalArgumentException("Functions must take at least one argument: " + name);
+        }
+
+        String key = name.toUpperCase(Locale.ROOT);
+
+        if (this.functions.containsKey(key)) {
+            throw new IllegalArgumentException("Function is already registered: " + name);
+        }
+
+        FunctionDefinition definition = new FunctionDefinition(this.definitions.size(), name, arity, pure, implementation, opcode);
+
+        this.functions.put(key, definition);
+        this.definitions.add(definition);
+
+        return definition.getId();
+    }
+
+    /*
+     * Returns the function with the given name ignoring case, or null if there is none
+     */
+    public synchronized FunctionDefinition get(String name) {
+        return this.functions.get(name.toUpperCase(Locale.ROOT));
+    }
+
+    public synchronized FunctionDefinition get(int id) {
+        return this.definitions.get(id);
+    }
+
+    public synchronized int size() {
+        return this.definitions.size();
+    }
+}
@@ -0,0 +1,11 @@
+package io.girish.shuntingyard;
+
+/*
+ * Implementation of a function that can be called from expressions. The arguments are
+ * arguments[offset] to arguments[offset + arity - 1], so calls can be made directly on the
+ * evaluation stack without copying the arguments into a new array.
+ */
+@FunctionalInterface
+public interface MathFunction {
+    double apply(double[] arguments, int offset);
+}
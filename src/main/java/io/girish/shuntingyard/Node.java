@@ -0,0 +1,219 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.TokenType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Expression tree built from a postfix token list. Operators and functions have their
+ * operands as children, numbers and variables are leaves.
+ *
+ * Long expressions make deep trees (a sum of n terms is n levels deep), so the tree is never
+ * traversed recursively: postOrder and walk keep the nodes still to visit on a stack of their own.
+ */
+final class Node {
+    /*
+     * Callbacks of walk. A node for which enter returns false is skipped together with its children,
+     * and exit is not called for it.
+     */
+    interface Visitor {
+        boolean enter(Node node) throws Exception;
+
+        void exit(Node node) throws Exception;
+    }
+
+    final Token token;
+    final Node[] children;
+
+    // Whether the node calls a function that is not pure, directly or in one of its children
+    private final boolean sideEffects;
+
+    Node(Token token, Node... children) {
+        this.token = token;
+        this.children = children;
+
+        // Children are built before their parent, so the flag is known for them already
+        boolean sideEffects = token.getTokenType() == TokenType.FUNCTION && !token.getFunction().isPure();
+
+        for (Node child : children) {
+            sideEffects |= child.sideEffects;
+        }
+
+        this.sideEffects = sideEffects;
+    }
+
+    /*
+     * Builds the tree for a postfix token list, checking that every operator has its operands
+     */
+    static Node fromPostfix(List<Token> postfix) throws ExpressionException {
+        Node[] stack = new Node[postfix.size()];
+        int sp = 0;
+
+        for (Token token : postfix) {
+            int operands = switch (token.getTokenType()) {
+                case NUMBER, VARIABLE -> 0;
+                case FUNCTION -> token.getFunction().getArity();
+                case OPERATOR -> 2;
+                default -> throw new IllegalArgumentException("Invalid token in postfix expression: " + token.getValue());
+            };
+
+            if (sp < operands) {
+                throw new ExpressionException(ErrorKind.MISSING_OPERAND, token.getPosition(),
+                        "Missing operand for " + token.getValue().toLowerCase() + " at position " + token.getPosition());
+            }
+
+            Node[] children = new Node[operands];
+
+            for (int i = operands - 1; i >= 0; i--) {
+                children[i] = stack[--sp];
+            }
+
+            stack[sp++] = new Node(token, children);
+        }
+
+        if (sp == 0) {
+            throw new ExpressionException(ErrorKind.EMPTY_EXPRESSION, 0, "Empty expression");
+        }
+
+        if (sp > 1) {
+            int position = stack[1].token.getPosition();
+
+            throw new ExpressionException(ErrorKind.MISSING_OPERATOR, position,
+                    "Missing operator before position " + position);
+        }
+
+        return stack[0];
+    }
+
+    /*
+     * The nodes of the tree with every node after its children, found without recursion
+     */
+    List<Node> postOrder() {
+        List<Node> nodes = new ArrayList<>();
+        ArrayDeque<Node> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        // Visits every node before its children, from the last child to the first, which reversed is post-order
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            nodes.add(node);
+
+            for (Node child : node.children) {
+                pending.push(child);
+            }
+        }
+
+        Collections.reverse(nodes);
+
+        return nodes;
+    }
+
+    /*
+     * Visits the nodes depth-first from the first child to the last, calling exit for a node after
+     * all of its children
+     */
+    void walk(Visitor visitor) throws Exception {
+        if (!visitor.enter(this)) {
+            return;
+        }
+
+        // Path from the root to the current node, with the index of the next child to visit of every node
+        Node[] path = {this};
+        int[] next = new int[1];
+        int depth = 1;
+
+        while (depth > 0) {
+            Node node = path[depth - 1];
+
+            if (next[depth - 1] == node.children.length) {
+                depth--;
+                visitor.exit(node);
+                continue;
+            }
+
+            Node child = node.children[next[depth - 1]++];
+
+            if (visitor.enter(child)) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+
+                path[depth] = child;
+                next[depth] = 0;
+                depth++;
+            }
+        }
+    }
+
+    void toPostfix(List<Token> postfix) {
+        for (Node node : postOrder()) {
+            postfix.add(node.token);
+        }
+    }
+
+    boolean isNumber() {
+        return this.token.getTokenType() == TokenType.NUMBER;
+    }
+
+    boolean isNumber(double number) {
+        return isNumber() && this.token.getNumber() == number;
+    }
+
+    /*
+     * Whether the node calls a function that is not pure, directly or in one of its children
+     */
+    boolean hasSideEffects() {
+        return this.sideEffects;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        // Nodes still to print and the text between them, the next one on top
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+
+            if (item instanceof String text) {
+                sb.append(text);
+                continue;
+            }
+
+            Node node = (Node) item;
+
+            switch (node.token.getTokenType()) {
+                case OPERATOR -> {
+                    sb.append('(');
+                    pending.push(")");
+                    pending.push(node.children[1]);
+                    pending.push(" " + node.token.getValue() + " ");
+                    pending.push(node.children[0]);
+                }
+                case FUNCTION -> {
+                    sb.append(node.token.getValue().toLowerCase()).append('(');
+                    pending.push(")");
+
+                    for (int i = node.children.length - 1; i >= 0; i--) {
+                        pending.push(node.children[i]);
+
+                        if (i > 0) {
+                            pending.push(", ");
+                        }
+                    }
+                }
+                default -> sb.append(node.token.getValue());
+            }
+        }
+
+        return sb.toString();
+    }
+}
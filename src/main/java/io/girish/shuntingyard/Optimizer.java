@@ -0,0 +1,136 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.TokenPrecedence;
+import io.girish.shuntingyard.enums.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Simplifies postfix expressions between the shunting yard conversion and evaluation.
+ *
+ * Operators and pure functions whose operands are all constants are folded into a single number,
+ * e.g. "sin(30)*a" is evaluated as "0.49999999999999994*a". Functions that are not pure are never
+ * folded. Identity operations are removed: x*1, 1*x, x/1, x+0, 0+x, x-0 and x^1 become x, and x^0
+ * becomes 1, unless the removed operand calls a function that is not pure.
+ *
+ * Folding uses the same arithmetic as evaluation, so results are unchanged. The only
+ * exception is x+0 when x is -0, which the removed addition would have turned into 0.
+ */
+final class Optimizer {
+    private Optimizer() {
+    }
+
+    /*
+     * Returns the simplified postfix expression and adds a description of every simplification to the report
+     */
+    static List<Token> optimize(List<Token> postfix, List<String> report) throws Exception {
+        Node root = simplify(Node.fromPostfix(postfix), report);
+
+        List<Token> optimized = new ArrayList<>();
+        root.toPostfix(optimized);
+
+        return optimized;
+    }
+
+    private static Node simplify(Node root, List<String> report) throws Exception {
+        // Simplified sub-trees, taken off the top by their parent like operands in postfix
+        List<Node> simplified = new ArrayList<>();
+
+        for (Node node : root.postOrder()) {
+            Node[] children = new Node[node.children.length];
+
+            for (int i = children.length - 1; i >= 0; i--) {
+                children[i] = simplified.remove(simplified.size() - 1);
+            }
+
+            simplified.add(simplify(node, children, report));
+        }
+
+        return simplified.get(0);
+    }
+
+    /*
+     * Simplifies the node with its children already simplified
+     */
+    private static Node simplify(Node node, Node[] children, List<String> report) throws Exception {
+        if (children.length == 0) {
+            return node;
+        }
+
+        boolean constantChildren = true;
+
+        for (Node child : children) {
+            constantChildren &= child.isNumber();
+        }
+
+        Node simplified = new Node(node.token, children);
+
+        if (constantChildren && !simplified.hasSideEffects()) {
+            Node folded = number(calculate(node.token, children));
+
+            report.add("folded " + simplified + " to " + folded);
+
+            return folded;
+        }
+
+        if (node.token.getTokenType() != TokenType.OPERATOR) {
+            return simplified;
+        }
+
+        Node left = children[0];
+        Node right = children[1];
+
+        Node identity = switch (node.token.getValue()) {
+            case "*" -> right.isNumber(1) ? left : left.isNumber(1) ? right : null;
+            case "/" -> right.isNumber(1) ? left : null;
+            case "+" -> right.isNumber(0) ? left : left.isNumber(0) ? right : null;
+            case "-" -> right.isNumber(0) ? left : null;
+            case "^" -> right.isNumber(1) ? left : right.isNumber(0) ? number(1) : null;
+            default -> null;
+        };
+
+        if (identity == null || dropsSideEffects(children, identity)) {
+            return simplified;
+        }
+
+        report.add("simplified " + simplified + " to " + identity);
+
+        return identity;
+    }
+
+    /*
+     * Whether replacing the node by the identity would drop an operand that calls a function that is
+     * not pure, e.g. noise(x) in noise(x)^0
+     */
+    private static boolean dropsSideEffects(Node[] children, Node identity) {
+        for (Node child : children) {
+            if (child != identity && child.hasSideEffects()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static double calculate(Token token, Node[] children) throws Exception {
+        if (token.getTokenType() == TokenType.FUNCTION && token.getFunction().getOpcode() < 0) {
+            double[] arguments = new double[children.length];
+
+            for (int i = 0; i < children.length; i++) {
+                arguments[i] = children[i].token.getNumber();
+            }
+
+            return token.getFunction().apply(arguments, 0);
+        }
+
+        double left = children[0].token.getNumber();
+        double right = children.length > 1 ? children[1].token.getNumber() : Double.NaN;
+
+        return Program.calculate(Program.opcodeOf(token), left, right);
+    }
+
+    private static Node number(double value) {
+        return new Node(new Token(String.valueOf(value), value, TokenPrecedence.NUMBER.getPrecedence()));
+    }
+}
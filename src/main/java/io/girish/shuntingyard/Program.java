@@ -0,0 +1,560 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.MathMode;
+import io.girish.shuntingyard.enums.TokenType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+ * Postfix program in a compact form that can be interpreted over a primitive double[] stack.
+ *
+ * Every instruction is a single int holding an opcode in the lowest 8 bits and an operand
+ * (constant index, variable slot or temporary) in the remaining bits. Numbers are stored as doubles
+ * in a constant pool, so evaluation never formats or parses text and does not allocate.
+ *
+ * When sub-expressions are shared, a sub-expression that occurs more than once (e.g. "sin(f*x)" in
+ * "a*sin(f*x) + b*sin(f*x)^2") is computed once, kept in a temporary with STORE and read back with
+ * RECALL wherever it occurs again. Temporaries live in the scratch array right after the stack.
+ * Calls to functions that are not pure are never shared.
+ *
+ * Built-in functions such as sin have their own opcode. Other functions of the FunctionRegistry are
+ * called with CALL, whose operand indexes the function table of the program, so a call is an array
+ * lookup. The arguments are passed in place on the stack and the result replaces the first one.
+ * NEGATE is the unary minus, which the tokenizer emits as a function token with one operand.
+ */
+final class Program {
+    static final int PUSH = 0;
+    static final int LOAD = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    static final int POWER = 6;
+    static final int SIN = 7;
+    static final int COS = 8;
+    static final int TAN = 9;
+    static final int STORE = 10;
+    static final int RECALL = 11;
+    static final int CALL = 12;
+    static final int NEGATE = 13;
+
+    // Number of rows that executeBatch processes per instruction
+    static final int BLOCK_SIZE = 256;
+
+    private static final int OPCODE_BITS = 8;
+    private static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+    private final int[] code;
+    private final double[] constants;
+    private final int[] variableSlots;
+    private final int frameSize;
+    private final int maxStack;
+    private final int temporaries;
+    private final FunctionDefinition[] functions;
+
+    private Program(int[] code, double[] constants, int[] variableSlots, int frameSize, int maxStack, int temporaries,
+                    FunctionDefinition[] functions) {
+        this.code = code;
+        this.constants = constants;
+        this.variableSlots = variableSlots;
+        this.frameSize = frameSize;
+        this.maxStack = maxStack;
+        this.temporaries = temporaries;
+        this.functions = functions;
+    }
+
+    /*
+     * Translates postfix tokens to instructions, checking that every operator has its operands.
+     * Variable names are resolved to slots of the symbol table once, here.
+     *
+     * If a report is given, repeated sub-expressions are shared and described in the report.
+     */
+    static Program fromPostfix(List<Token> postfix, SymbolTable symbolTable, List<String> report) throws Exception {
+        Node root = Node.fromPostfix(postfix);
+
+        Builder builder = new Builder(symbolTable);
+
+        if (report != null) {
+            builder.findSharedNodes(root, report);
+        }
+
+        builder.emit(root);
+
+        return builder.build();
+    }
+
+    /*
+     * Opcode of an operator or function token, CALL for functions without an opcode of their own
+     */
+    static int opcodeOf(Token token) throws Exception {
+        if (token.getTokenType() == TokenType.FUNCTION) {
+            int opcode = token.getFunction().getOpcode();
+            return opcode < 0 ? CALL : opcode;
+        }
+
+        return switch (token.getValue()) {
+            case "+" -> ADD;
+            case "-" -> SUBTRACT;
+            case "*" -> MULTIPLY;
+            case "/" -> DIVIDE;
+            case "^" -> POWER;
+            default -> throw new Exception("Invalid operator: " + token.getValue());
+        };
+    }
+
+    /*
+     * Applies an operator or function outside of a program, e.g. to fold constants at compile time.
+     * Functions only use the left operand. Gives the same results as execute.
+     */
+    static double calculate(int opcode, double left, double right) {
+        return switch (opcode) {
+            case ADD -> left + right;
+            case SUBTRACT -> left - right;
+            case MULTIPLY -> left * right;
+            case DIVIDE -> left / right;
+            case POWER -> Math.pow(left, right);
+            case SIN -> Math.sin(Math.toRadians(left));
+            case COS -> Math.cos(Math.toRadians(left));
+            case TAN -> Math.tan(Math.toRadians(left));
+            case NEGATE -> -left;
+            default -> throw new IllegalArgumentException("Not an operator or function: " + opcode);
+        };
+    }
+
+    private static int encode(int opcode, int operand) {
+        return operand << OPCODE_BITS | opcode;
+    }
+
+    static int opcode(int instruction) {
+        return instruction & OPCODE_MASK;
+    }
+
+    static int operand(int instruction) {
+        return instruction >>> OPCODE_BITS;
+    }
+
+    /*
+     * Runs the program with variable values taken from the frame (indexed by slot) on the given
+     * scratch array, which must hold at least getScratchSize() values
+     */
+    double execute(double[] frame, double[] stack, MathMode mathMode) {
+        boolean fast = mathMode == MathMode.FAST;
+        int sp = 0;
+
+        for (int instruction : this.code) {
+            int operand = instruction >>> OPCODE_BITS;
+
+            switch (instruction & OPCODE_MASK) {
+                case PUSH -> stack[sp++] = this.constants[operand];
+                case LOAD -> stack[sp++] = frame[operand];
+                case ADD -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] + stack[sp];
+                }
+                case SUBTRACT -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] - stack[sp];
+                }
+                case MULTIPLY -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] * stack[sp];
+                }
+                case DIVIDE -> {
+                    sp--;
+                    stack[sp - 1] = stack[sp - 1] / stack[sp];
+                }
+                case POWER -> {
+                    sp--;
+                    stack[sp - 1] = Math.pow(stack[sp - 1], stack[sp]);
+                }
+                case SIN -> stack[sp - 1] = fast ? FastTrig.sin(stack[sp - 1]) : Math.sin(Math.toRadians(stack[sp - 1]));
+                case COS -> stack[sp - 1] = fast ? FastTrig.cos(stack[sp - 1]) : Math.cos(Math.toRadians(stack[sp - 1]));
+                case TAN -> stack[sp - 1] = fast ? FastTrig.tan(stack[sp - 1]) : Math.tan(Math.toRadians(stack[sp - 1]));
+                case NEGATE -> stack[sp - 1] = -stack[sp - 1];
+                case STORE -> stack[this.maxStack + operand] = stack[sp - 1];
+                case RECALL -> stack[sp++] = stack[this.maxStack + operand];
+                case CALL -> {
+                    FunctionDefinition function = this.functions[operand];
+                    sp -= function.getArity() - 1;
+                    stack[sp - 1] = function.apply(stack, sp - 1);
+                }
+            }
+        }
+
+        return stack[0];
+    }
+
+    /*
+     * Runs the program for the rows [from, to) of the columns, writing each result to out[row].
+     *
+     * Instead of interpreting the program once per row, every instruction is applied to a whole
+     * block of rows before moving on to the next one. The inner loops are simple loops over arrays,
+     * which the JIT can unroll and vectorize. Columns are indexed by slot, a column with a single
+     * value is used for every row.
+     */
+    void executeBatch(double[][] columns, double[] out, int from, int to, MathMode mathMode) {
+        boolean fast = mathMode == MathMode.FAST;
+        double[][] stack = new double[getScratchSize()][BLOCK_SIZE];
+        double[] arguments = new double[getMaxStack()];
+
+        for (int blockStart = from; blockStart < to; blockStart += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, to - blockStart);
+            int sp = 0;
+
+            for (int instruction : this.code) {
+                int operand = instruction >>> OPCODE_BITS;
+
+                switch (instruction & OPCODE_MASK) {
+                    case PUSH -> Arrays.fill(stack[sp++], 0, n, this.constants[operand]);
+                    case LOAD -> {
+                        double[] column = columns[operand];
+
+                        if (column.length == 1) {
+                            Arrays.fill(stack[sp++], 0, n, column[0]);
+                        } else {
+                            System.arraycopy(column, blockStart, stack[sp++], 0, n);
+                        }
+                    }
+                    case ADD -> {
+                        double[] a = stack[sp - 2], b = stack[--sp];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = a[i] + b[i];
+                        }
+                    }
+                    case SUBTRACT -> {
+                        double[] a = stack[sp - 2], b = stack[--sp];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = a[i] - b[i];
+                        }
+                    }
+                    case MULTIPLY -> {
+                        double[] a = stack[sp - 2], b = stack[--sp];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = a[i] * b[i];
+                        }
+                    }
+                    case DIVIDE -> {
+                        double[] a = stack[sp - 2], b = stack[--sp];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = a[i] / b[i];
+                        }
+                    }
+                    case POWER -> {
+                        double[] a = stack[sp - 2], b = stack[--sp];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = Math.pow(a[i], b[i]);
+                        }
+                    }
+                    case SIN -> {
+                        double[] a = stack[sp - 1];
+                        if (fast) {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = FastTrig.sin(a[i]);
+                            }
+                        } else {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = Math.sin(Math.toRadians(a[i]));
+                            }
+                        }
+                    }
+                    case COS -> {
+                        double[] a = stack[sp - 1];
+                        if (fast) {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = FastTrig.cos(a[i]);
+                            }
+                        } else {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = Math.cos(Math.toRadians(a[i]));
+                            }
+                        }
+                    }
+                    case TAN -> {
+                        double[] a = stack[sp - 1];
+                        if (fast) {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = FastTrig.tan(a[i]);
+                            }
+                        } else {
+                            for (int i = 0; i < n; i++) {
+                                a[i] = Math.tan(Math.toRadians(a[i]));
+                            }
+                        }
+                    }
+                    case NEGATE -> {
+                        double[] a = stack[sp - 1];
+                        for (int i = 0; i < n; i++) {
+                            a[i] = -a[i];
+                        }
+                    }
+                    case STORE -> System.arraycopy(stack[sp - 1], 0, stack[this.maxStack + operand], 0, n);
+                    case RECALL -> System.arraycopy(stack[this.maxStack + operand], 0, stack[sp++], 0, n);
+                    case CALL -> {
+                        FunctionDefinition function = this.functions[operand];
+                        int arity = function.getArity();
+                        sp -= arity - 1;
+
+                        double[] a = stack[sp - 1];
+                        for (int i = 0; i < n; i++) {
+                            for (int j = 0; j < arity; j++) {
+                                arguments[j] = stack[sp - 1 + j][i];
+                            }
+                            a[i] = function.apply(arguments, 0);
+                        }
+                    }
+                }
+            }
+
+            System.arraycopy(stack[0], 0, out, blockStart, n);
+        }
+    }
+
+    int[] getCode() {
+        return this.code;
+    }
+
+    double[] getConstants() {
+        return this.constants;
+    }
+
+    /*
+     * Slots of the variables that the program reads, in order of first use
+     */
+    int[] getVariableSlots() {
+        return this.variableSlots;
+    }
+
+    /*
+     * Minimum length of a frame passed to execute
+     */
+    int getFrameSize() {
+        return this.frameSize;
+    }
+
+    int getMaxStack() {
+        return this.maxStack;
+    }
+
+    int getTemporaries() {
+        return this.temporaries;
+    }
+
+    /*
+     * Functions called with CALL, indexed by the operand of the instruction
+     */
+    FunctionDefinition[] getFunctions() {
+        return this.functions;
+    }
+
+    /*
+     * Minimum length of the scratch array passed to execute: the stack followed by the temporaries
+     */
+    int getScratchSize() {
+        return this.maxStack + this.temporaries;
+    }
+
+    private static final class Builder {
+        private final SymbolTable symbolTable;
+
+        private final List<Integer> code = new ArrayList<>();
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Integer> variableSlots = new ArrayList<>();
+        private final List<FunctionDefinition> functions = new ArrayList<>();
+
+        // Id of every node whose sub-expression occurs more than once, and the temporary holding its value
+        private final IdentityHashMap<Node, Integer> sharedIds = new IdentityHashMap<>();
+        private final HashMap<Integer, Integer> temporaries = new HashMap<>();
+
+        private int depth = 0;
+        private int maxStack = 0;
+
+        Builder(SymbolTable symbolTable) {
+            this.symbolTable = symbolTable;
+        }
+
+        /*
+         * Marks operator and function nodes whose sub-expression occurs more than once. Nodes that are
+         * only repeated as part of a larger shared sub-expression are not marked, since that larger
+         * sub-expression is recalled as a whole.
+         */
+        void findSharedNodes(Node root, List<String> report) throws Exception {
+            IdentityHashMap<Node, Integer> ids = new IdentityHashMap<>();
+            List<Integer> occurrences = new ArrayList<>();
+
+            assignIds(root, ids, occurrences);
+
+            LinkedHashMap<Integer, Node> computed = new LinkedHashMap<>();
+            LinkedHashMap<Integer, Integer> recalls = new LinkedHashMap<>();
+
+            findRecalls(root, ids, occurrences, computed, recalls);
+
+            for (var nodeId : ids.entrySet()) {
+                if (recalls.containsKey(nodeId.getValue())) {
+                    this.sharedIds.put(nodeId.getKey(), nodeId.getValue());
+                }
+            }
+
+            for (var recall : recalls.entrySet()) {
+                report.add("shared " + computed.get(recall.getKey()) + " (used " + (recall.getValue() + 1) + " times)");
+            }
+        }
+
+        /*
+         * Walks the tree in emission order, counting how often each repeated sub-expression could
+         * be recalled instead of being computed again
+         */
+        private static void findRecalls(Node root, IdentityHashMap<Node, Integer> ids, List<Integer> occurrences,
+                                        LinkedHashMap<Integer, Node> computed, LinkedHashMap<Integer, Integer> recalls)
+                throws Exception {
+            root.walk(new Node.Visitor() {
+                @Override
+                public boolean enter(Node node) {
+                    int id = ids.get(node);
+
+                    if (isRepeated(node) && computed.containsKey(id)) {
+                        recalls.merge(id, 1, Integer::sum);
+                        return false;
+                    }
+
+                    return true;
+                }
+
+                @Override
+                public void exit(Node node) {
+                    if (isRepeated(node)) {
+                        computed.put(ids.get(node), node);
+                    }
+                }
+
+                private boolean isRepeated(Node node) {
+                    return node.children.length != 0 && occurrences.get(ids.get(node)) > 1 && !node.hasSideEffects();
+                }
+            });
+        }
+
+        /*
+         * Numbers every distinct sub-expression. Nodes are identified by their token and the ids of their
+         * children, so equal sub-expressions get the same id without comparing them as a whole.
+         */
+        private static void assignIds(Node root, IdentityHashMap<Node, Integer> ids, List<Integer> occurrences) {
+            HashMap<String, Integer> distinct = new HashMap<>();
+
+            for (Node node : root.postOrder()) {
+                StringBuilder sb = new StringBuilder();
+
+                switch (node.token.getTokenType()) {
+                    case NUMBER -> sb.append('#').append(Double.doubleToLongBits(node.token.getNumber()));
+                    case VARIABLE -> sb.append('$').append(node.token.getValue());
+                    default -> {
+                        sb.append(node.token.getValue()).append('(');
+
+                        for (Node child : node.children) {
+                            sb.append(ids.get(child)).append(',');
+                        }
+
+                        sb.append(')');
+                    }
+                }
+
+                int id = distinct.computeIfAbsent(sb.toString(), key -> distinct.size());
+
+                if (id == occurrences.size()) {
+                    occurrences.add(1);
+                } else {
+                    occurrences.set(id, occurrences.get(id) + 1);
+                }
+
+                ids.put(node, id);
+            }
+        }
+
+        void emit(Node root) throws Exception {
+            root.walk(new Node.Visitor() {
+                @Override
+                public boolean enter(Node node) {
+                    Integer sharedId = sharedIds.get(node);
+
+                    if (sharedId != null && temporaries.containsKey(sharedId)) {
+                        add(encode(RECALL, temporaries.get(sharedId)), 0);
+                        return false;
+                    }
+
+                    return true;
+                }
+
+                @Override
+                public void exit(Node node) throws Exception {
+                    emitInstruction(node);
+                }
+            });
+        }
+
+        /*
+         * Emits the instruction of the node, after the instructions of its children
+         */
+        private void emitInstruction(Node node) throws Exception {
+            Integer sharedId = this.sharedIds.get(node);
+            Token token = node.token;
+
+            switch (token.getTokenType()) {
+                case NUMBER -> {
+                    this.constants.add(token.getNumber());
+                    add(encode(PUSH, this.constants.size() - 1), 0);
+                }
+                case VARIABLE -> {
+                    int slot = this.symbolTable.define(token.getValue());
+
+                    if (!this.variableSlots.contains(slot)) {
+                        this.variableSlots.add(slot);
+                    }
+
+                    add(encode(LOAD, slot), 0);
+                }
+                case OPERATOR -> add(opcodeOf(token), 2);
+                case FUNCTION -> {
+                    int opcode = opcodeOf(token);
+
+                    if (opcode == CALL) {
+                        if (!this.functions.contains(token.getFunction())) {
+                            this.functions.add(token.getFunction());
+                        }
+
+                        opcode = encode(CALL, this.functions.indexOf(token.getFunction()));
+                    }
+
+                    add(opcode, token.getFunction().getArity());
+                }
+                default -> throw new Exception("Invalid token in postfix expression: " + token.getValue());
+            }
+
+            if (sharedId != null) {
+                int temporary = this.temporaries.size();
+                this.temporaries.put(sharedId, temporary);
+
+                // Keeps the value on the stack and also stores it in the temporary
+                this.code.add(encode(STORE, temporary));
+            }
+        }
+
+        private void add(int instruction, int operands) {
+            this.depth = this.depth - operands + 1;
+            this.maxStack = Math.max(this.maxStack, this.depth);
+
+            this.code.add(instruction);
+        }
+
+        Program build() {
+            int[] code = this.code.stream().mapToInt(Integer::intValue).toArray();
+            double[] constants = this.constants.stream().mapToDouble(Double::doubleValue).toArray();
+            int[] slots = this.variableSlots.stream().mapToInt(Integer::intValue).toArray();
+
+            return new Program(code, constants, slots, this.symbolTable.size(), this.maxStack, this.temporaries.size(),
+                    this.functions.toArray(new FunctionDefinition[0]));
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package io.girish.shuntingyard;
+
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.MathMode;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Evaluates an expression for a range of values of one variable, e.g. f(x) for x in [min, max)
+ * when plotting, spread over the workers of a ForkJoinPool.
+ *
+ * The range is split into chunks that are evaluated with CompiledExpression.evaluateBatch.
+ * Every worker uses its own columns and writes to its own part of the preallocated result
+ * arrays, so no mutable state is shared between workers. Sample i is always min + i * step,
+ * so the results do not depend on how the range was split.
+ */
+public final class RangeEvaluator {
+    // Ranges with fewer samples than this are evaluated by a single worker
+    private static final int CHUNK_SIZE = 8192;
+
+    private final CompiledExpression expression;
+
+    // Slot of the range variable, -1 if the expression does not use it
+    private final int slot;
+    private final ForkJoinPool pool;
+
+    public RangeEvaluator(CompiledExpression expression, String variable) {
+        this(expression, variable, ForkJoinPool.commonPool());
+    }
+
+    public RangeEvaluator(CompiledExpression expression, String variable, ForkJoinPool pool) {
+        this.expression = expression;
+        this.slot = expression.getSlot(variable);
+        this.pool = pool;
+    }
+
+    /*
+     * Number of samples min + i * step that are smaller than max
+     */
+    public static int countSamples(double min, double max, double step) {
+        if (!(step > 0)) {
+            throw new IllegalArgumentException("Step must be greater than 0: " + step);
+        }
+
+        if (!(max > min)) {
+            return 0;
+        }
+
+        double count = Math.ceil((max - min) / step);
+
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many samples in range: " + count);
+        }
+
+        int samples = (int) count;
+
+        // Correct for rounding in the division so that exactly the samples below max are counted
+        while (samples > 0 && sample(min, step, samples - 1) >= max) {
+            samples--;
+        }
+        while (sample(min, step, samples) < max) {
+            samples++;
+        }
+
+        return samples;
+    }
+
+    public static double sample(double min, double step, int i) {
+        return min + i * step;
+    }
+
+    /*
+     * Evaluates the expression for every sample of [min, max) with the other variables taken from the map
+     */
+    public double[] evaluate(double min, double max, double step, Map<String, Double> expressionVariables) throws ExpressionException {
+        int samples = countSamples(min, max, step);
+
+        double[][] columns = new double[this.expression.getSymbolTable().size()][];
+
+        for (String variable : this.expression.getVariables()) {
+            int variableSlot = this.expression.getSlot(variable);
+
+            if (variableSlot == this.slot) {
+                continue;
+            }
+
+            Double variableValue = expressionVariables.get(variable);
+
+            if (variableValue == null) {
+                throw new ExpressionException(ErrorKind.UNKNOWN_VARIABLE, -1, "Unknown variable: " + variable);
+            }
+
+            columns[variableSlot] = new double[]{variableValue};
+        }
+
+        double[] xs = new double[samples];
+        double[] ys = new double[samples];
+
+        evaluate(min, step, columns, xs, ys);
+
+        return ys;
+    }
+
+    /*
+     * Fills xs[i] with min + i * step and ys[i] with the result for that sample, for every i < ys.length.
+     * The columns for all other variables are indexed by slot like for evaluateBatch; the column
+     * of the range variable is ignored.
+     */
+    public void evaluate(double min, double step, double[][] columns, double[] xs, double[] ys) {
+        evaluate(min, step, columns, xs, ys, MathMode.STRICT);
+    }
+
+    /*
+     * Like evaluate(min, step, columns, xs, ys), with the trigonometric functions evaluated in the given mode
+     */
+    public void evaluate(double min, double step, double[][] columns, double[] xs, double[] ys, MathMode mathMode) {
+        if (xs.length < ys.length) {
+            throw new IllegalArgumentException("Expected at least " + ys.length + " samples in xs, got " + xs.length);
+        }
+
+        int columnCount = Math.max(columns.length, this.slot + 1);
+
+        this.pool.invoke(new Chunk(min, step, columns, columnCount, xs, ys, 0, ys.length, mathMode));
+    }
+
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double min, step;
+        private final double[][] columns;
+        private final int columnCount;
+        private final double[] xs, ys;
+        private final int from, to;
+        private final MathMode mathMode;
+
+        Chunk(double min, double step, double[][] columns, int columnCount, double[] xs, double[] ys, int from, int to,
+              MathMode mathMode) {
+            this.min = min;
+            this.step = step;
+            this.columns = columns;
+            this.columnCount = columnCount;
+            this.xs = xs;
+            this.ys = ys;
+            this.from = from;
+            this.to = to;
+            this.mathMode = mathMode;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > CHUNK_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+
+                invokeAll(new Chunk(this.min, this.step, this.columns, this.columnCount, this.xs, this.ys, this.from, middle, this.mathMode),
+                        new Chunk(this.min, this.step, this.columns, this.columnCount, this.xs, this.ys, middle, this.to, this.mathMode));
+                return;
+            }
+
+            for (int i = this.from; i < this.to; i++) {
+                this.xs[i] = sample(this.min, this.step, i);
+            }
+
+            // Every worker gets its own columns, with the samples as the column of the range variable
+            double[][] workerColumns = new double[this.columnCount][];
+            System.arraycopy(this.columns, 0, workerColumns, 0, this.columns.length);
+
+            if (RangeEvaluator.this.slot >= 0) {
+                workerColumns[RangeEvaluator.this.slot] = this.xs;
+            }
+
+            RangeEvaluator.this.expression.evaluateBatch(workerColumns, this.ys, this.from, this.to, this.mathMode);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.girish.shuntingyard;
 
+import io.girish.shuntingyard.enums.ErrorKind;
 import io.girish.shuntingyard.enums.TokenType;
 
 import java.util.ArrayList;
@@ -16,92 +17,137 @@ import java.util.List;
  * This implementation of the algorithm has been extended to support numeric values greater than 9, negative values,
  * functions, variable declaration and evaluation, and decimal values.
  *
+ * Thread safety: compiling and evaluating never touch shared mutable state apart from the expression
+ * cache, which is synchronized. Compiled expressions are immutable and can be shared between threads,
+ * see CompiledExpression for how variable values are passed per call.
+ *
  * Reference: https://en.wikipedia.org/wiki/Shunting_yard_algorithm
  */
 public class ShuntingYard {
+    // Expressions evaluated by text, e.g. from the REPL, are compiled once and then reused
+    private static final ExpressionCache CACHE = new ExpressionCache(1024);
+
     public static double evaluate(String expression, HashMap<String, Double> expressionVariables) throws Exception {
-        Tokenizer tokenizer = new Tokenizer(expression);
+        return CACHE.get(expression).evaluate(expressionVariables);
+    }
 
-        List<Token> outputQueue = new ArrayList<>();
-        List<Token> operatorStack = new ArrayList<>();
+    /*
+     * Cache used by evaluate(String, HashMap)
+     */
+    public static ExpressionCache getCache() {
+        return CACHE;
+    }
 
-        List<Token> tokens = tokenizer.getTokens();
+    /*
+     * Tokenizes the expression and converts it to postfix notation once. The returned
+     * CompiledExpression can then be evaluated any number of times with different variable values.
+     */
+    public static CompiledExpression compile(String expression) throws Exception {
+        return compile(expression, new SymbolTable());
+    }
 
-        for (int tokenIdx = 0; tokenIdx < tokens.size(); tokenIdx++) {
-            Token token = tokens.get(tokenIdx);
+    /*
+     * Compiles the expression with its variables resolved to slots of the given symbol table,
+     * defining any variables that the table does not know yet.
+     */
+    public static CompiledExpression compile(String expression, SymbolTable symbolTable) throws Exception {
+        return compile(expression, symbolTable, true);
+    }
 
-            switch (token.getTokenType()) {
-                case NUMBER -> outputQueue.add(token);
-                case VARIABLE -> {
-                    double variableValue = expressionVariables.get(token.getValue());
-                    outputQueue.add(new Token(String.valueOf(variableValue), token.getPrecedence(), TokenType.NUMBER));
-                }
-                case FUNCTION -> {
-                    int functionTokenIdx = tokenIdx + 2;
-                    Token functionToken = tokens.get(functionTokenIdx);
+    /*
+     * Compiles the expression, optionally without simplifying it or sharing repeated sub-expressions.
+     * Compiling with and without optimization allows checking that the simplifications do not change results.
+     */
+    public static CompiledExpression compile(String expression, SymbolTable symbolTable, boolean optimize) throws Exception {
+        return compile(expression, symbolTable, FunctionRegistry.getDefault(), optimize);
+    }
 
-                    StringBuilder stringBuilder = new StringBuilder();
+    /*
+     * Compiles the expression with the functions of the given registry instead of the default ones
+     */
+    public static CompiledExpression compile(String expression, SymbolTable symbolTable, FunctionRegistry functions,
+                                             boolean optimize) throws Exception {
+        Tokenizer tokenizer = new Tokenizer(expression, functions);
 
-                    int countOpeningParentheses = 1;
+        List<Token> postfix = toPostfix(tokenizer.getTokens());
+        List<String> optimizations = new ArrayList<>();
 
-                    while (true) {
-                        if (functionToken.getTokenType() == TokenType.OPENING_PARENTHESES) {
-                            countOpeningParentheses += 1;
-                        }
+        if (optimize) {
+            postfix = Optimizer.optimize(postfix, optimizations);
+        }
 
-                        if (functionToken.getTokenType() == TokenType.CLOSING_PARENTHESES) {
-                            countOpeningParentheses -= 1;
+        return new CompiledExpression(postfix, symbolTable, optimize, optimizations);
+    }
 
-                            if (countOpeningParentheses <= 0) {
-                                stringBuilder.append(functionToken.getValue());
-                                break;
-                            }
-                        }
+    /*
+     * Converts the infix tokens to postfix/Reverse Polish Notation (RPN)
+     */
+    private static List<Token> toPostfix(List<Token> tokens) throws ExpressionException {
+        List<Token> outputQueue = new ArrayList<>();
+        List<Token> operatorStack = new ArrayList<>();
 
-                        stringBuilder.append(functionToken.getValue());
+        // Number of arguments read so far for every open parentheses, -1 if it does not belong to a function call
+        List<Integer> argumentCounts = new ArrayList<>();
 
-                        functionTokenIdx += 1;
+        for (int tokenIdx = 0; tokenIdx < tokens.size(); tokenIdx++) {
+            Token token = tokens.get(tokenIdx);
 
-                        if (functionTokenIdx == tokens.size()) {
-                            break;
-                        }
+            switch (token.getTokenType()) {
+                case NUMBER, VARIABLE -> outputQueue.add(token);
+                // Functions are pushed like operators and are moved to the output queue once the
+                // closing parentheses of their argument is reached, e.g. "sin(30)+1" becomes "30 SIN 1 +"
+                // A negation is pushed the same way and leaves the stack like an operator of its precedence
+                case FUNCTION -> operatorStack.add(token);
+                case OPENING_PARENTHESES -> {
+                    boolean call = operatorStack.size() != 0 && isCall(operatorStack.get(operatorStack.size() - 1));
+
+                    argumentCounts.add(call ? 1 : -1);
+                    operatorStack.add(token);
+                }
+                // Completes the current argument by moving its operators to the output queue
+                case COMMA -> {
+                    if (argumentCounts.isEmpty() || argumentCounts.get(argumentCounts.size() - 1) < 0) {
+                        throw new ExpressionException(ErrorKind.INVALID_CHARACTER, token.getPosition(),
+                                "Unexpected ',' outside of a function call at position " + token.getPosition());
+                    }
 
-                        functionToken = tokens.get(functionTokenIdx);
+                    while (operatorStack.get(operatorStack.size() - 1).getTokenType() != TokenType.OPENING_PARENTHESES) {
+                        outputQueue.add(operatorStack.remove(operatorStack.size() - 1));
                     }
 
-                    double functionExprResult = evaluate(stringBuilder.toString(), expressionVariables);
+                    argumentCounts.add(argumentCounts.remove(argumentCounts.size() - 1) + 1);
+                }
+                case CLOSING_PARENTHESES -> {
+                    int argumentCount = argumentCounts.isEmpty() ? -1 : argumentCounts.remove(argumentCounts.size() - 1);
 
-                    Token functionResult = null;
+                    int lastTokenIdx = operatorStack.size() - 1;
 
-                    try {
-                        functionResult = executeFunction(token, functionExprResult);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        System.exit(1);
+                    while (lastTokenIdx >= 0 && operatorStack.get(lastTokenIdx).getTokenType() != TokenType.OPENING_PARENTHESES) {
+                        outputQueue.add(operatorStack.remove(lastTokenIdx));
+
+                        lastTokenIdx = operatorStack.size() - 1;
                     }
 
-                    outputQueue.add(functionResult);
+                    // A ')' without a matching '(' would otherwise be ignored, e.g. "2+3)*4" would be 20
+                    if (lastTokenIdx < 0) {
+                        throw new ExpressionException(ErrorKind.UNMATCHED_PARENTHESIS, token.getPosition(),
+                                "Unmatched ')' at position " + token.getPosition());
+                    }
 
-                    tokenIdx = functionTokenIdx;
-                }
-                case OPENING_PARENTHESES -> operatorStack.add(token);
-                case CLOSING_PARENTHESES -> {
-                    if (operatorStack.size() != 0) {
-                        int lastTokenIdx = operatorStack.size() - 1;
-                        Token lastToken = operatorStack.get(lastTokenIdx);
+                    operatorStack.remove(lastTokenIdx);
 
-                        while (lastToken.getTokenType() != TokenType.OPENING_PARENTHESES && operatorStack.size() != 0) {
-                            outputQueue.add(operatorStack.remove(lastTokenIdx));
+                    lastTokenIdx = operatorStack.size() - 1;
 
-                            lastTokenIdx = operatorStack.size() - 1;
+                    if (!(lastTokenIdx < 0) && isCall(operatorStack.get(lastTokenIdx))) {
+                        Token function = operatorStack.remove(lastTokenIdx);
 
-                            if (!(lastTokenIdx < 0)) {
-                                lastToken = operatorStack.get(lastTokenIdx);
-                            }
-                        }
-                        if (!(lastTokenIdx < 0)) {
-                            operatorStack.remove(operatorStack.size() - 1);
+                        if (argumentCount >= 0 && argumentCount != function.getFunction().getArity()) {
+                            throw new ExpressionException(ErrorKind.ARGUMENT_COUNT, function.getPosition(),
+                                    function.getValue().toLowerCase() + " takes " + function.getFunction().getArity()
+                                            + " argument(s), got " + argumentCount + " at position " + function.getPosition());
                         }
+
+                        outputQueue.add(function);
                     }
                 }
                 case OPERATOR -> {
@@ -132,68 +178,20 @@ public class ShuntingYard {
 
         Collections.reverse(operatorStack);
 
-        outputQueue.addAll(operatorStack);
-
-        List<Token> stack = new ArrayList<>();
-
-        for (Token token : outputQueue) {
-            switch (token.getTokenType()) {
-                case NUMBER -> stack.add(token);
-                case OPERATOR -> {
-                    Token t1 = stack.remove(stack.size() - 1);
-                    Token t2 = stack.remove(stack.size() - 1);
-
-                    try {
-                        Token calculated = calculateStack(t2, t1, token);
-                        stack.add(calculated);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        System.exit(1);
-                    }
-                }
+        // Parentheses left open at the end of the expression are implicitly closed
+        for (Token token : operatorStack) {
+            if (token.getTokenType() != TokenType.OPENING_PARENTHESES) {
+                outputQueue.add(token);
             }
         }
 
-        double result = Double.parseDouble(stack.get(0).getValue());
-
-        return result == -0 ? 0 : result;
+        return outputQueue;
     }
 
-    static private Token calculateStack(Token t1, Token t2, Token operator) throws Exception {
-        double t1Number = Double.parseDouble(t1.getValue());
-        double t2Number = Double.parseDouble(t2.getValue());
-
-        double calculated = switch (operator.getValue()) {
-            case "*" -> t1Number * t2Number;
-            case "+" -> t1Number + t2Number;
-            case "-" -> t1Number - t2Number;
-            case "/" -> t1Number / t2Number;
-            case "^" -> Math.pow(t1Number, t2Number);
-
-            default -> throw new Exception("Invalid expression at: " + t1 + operator + t2);
-        };
-
-        return new Token(String.valueOf(calculated), 0, TokenType.NUMBER);
-    }
-
-    static private Token executeFunction(Token function, double functionParam) throws Exception {
-        double functionResult = switch (function.getValue()) {
-            case "SIN" -> Math.sin(Math.toRadians(functionParam));
-            case "COS" -> Math.cos(Math.toRadians(functionParam));
-            case "TAN" -> Math.tan(Math.toRadians(functionParam));
-            default -> throw new Exception("No function implemented with name : \"" + function.getValue() + "\"");
-        };
-
-        String functionResultStr = String.valueOf(functionResult);
-        int functionResultPrecedence = -1;
-
-        try {
-            functionResultPrecedence = Tokenizer.getPrecedence(functionResultStr, TokenType.NUMBER);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            System.exit(1);
-        }
-
-        return new Token(String.valueOf(functionResult), functionResultPrecedence, TokenType.NUMBER);
+    /*
+     * Whether the token on the operator stack is a function waiting for its parentheses, unlike a negation
+     */
+    private static boolean isCall(Token token) {
+        return token.getTokenType() == TokenType.FUNCTION && token.getFunction() != FunctionRegistry.NEGATE;
     }
 }
@@ -0,0 +1,58 @@
+package io.girish.shuntingyard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Maps variable names to integer slots. Expressions compiled against the same symbol table share
+ * its slot numbering, so one VariableFrame can hold the values for all of them (e.g. the variables
+ * of a REPL session). Slots are never removed or renumbered once defined.
+ *
+ * All methods are synchronized, so expressions can be compiled against a shared table from several
+ * threads. Compiled expressions keep their own copy of the slots they use, so evaluating never
+ * reads the table.
+ */
+public final class SymbolTable {
+    private final HashMap<String, Integer> slots = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /*
+     * Returns the slot of the variable, assigning the next free slot if it is not defined yet
+     */
+    public synchronized int define(String name) {
+        Integer slot = this.slots.get(name);
+
+        if (slot == null) {
+            slot = this.names.size();
+            this.slots.put(name, slot);
+            this.names.add(name);
+        }
+
+        return slot;
+    }
+
+    /*
+     * Returns the slot of the variable, or -1 if it is not defined
+     */
+    public synchronized int slotOf(String name) {
+        Integer slot = this.slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    public synchronized String nameOf(int slot) {
+        return this.names.get(slot);
+    }
+
+    public synchronized int size() {
+        return this.names.size();
+    }
+
+    public synchronized List<String> getNames() {
+        return List.copyOf(this.names);
+    }
+
+    public VariableFrame newFrame() {
+        return new VariableFrame(this);
+    }
+}
@@ -8,12 +8,31 @@ public class Token {
 
     TokenType tokenType;
 
+    // Parsed value of NUMBER tokens, so evaluation never has to parse the string value again
+    double number = Double.NaN;
+
+    // Function called by FUNCTION tokens, bound once when the expression is tokenized
+    FunctionDefinition function;
+
+    // Position in the expression text the token was read from, -1 for tokens created by the optimizer
+    int position = -1;
+
     public Token(String value, int precedence, TokenType tokenType) {
         this.value = value;
         this.precedence = precedence;
         this.tokenType = tokenType;
     }
 
+    public Token(String value, double number, int precedence) {
+        this(value, precedence, TokenType.NUMBER);
+        this.number = number;
+    }
+
+    public Token(String value, FunctionDefinition function, int precedence) {
+        this(value, precedence, TokenType.FUNCTION);
+        this.function = function;
+    }
+
     public String getValue() {
         return value;
     }
@@ -26,6 +45,18 @@ public class Token {
         return tokenType;
     }
 
+    public double getNumber() {
+        return number;
+    }
+
+    public FunctionDefinition getFunction() {
+        return function;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
     @Override
     public String toString() {
         return this.getValue();
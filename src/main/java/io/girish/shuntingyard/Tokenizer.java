@@ -1,318 +1,267 @@
 package io.girish.shuntingyard;
 
-import io.girish.shuntingyard.enums.Function;
+import io.girish.shuntingyard.enums.ErrorKind;
 import io.girish.shuntingyard.enums.TokenPrecedence;
 import io.girish.shuntingyard.enums.TokenType;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.Locale;
+
+/*
+ * Single-pass lexer that turns an infix expression into tokens.
+ *
+ * The expression is scanned once, character by character. Unary signs are resolved as they are
+ * read (consecutive signs like "-+--" collapse into one), multi-digit and decimal numbers are read
+ * as a whole, letter combinations become either a function of the FunctionRegistry or one variable
+ * per letter, and implicit multiplication is inserted between adjacent operands (e.g. "ax" becomes
+ * "a * x").
+ * Whitespace is ignored everywhere, including inside numbers and function names.
+ *
+ * Every token remembers the position it was read from, so that errors found while tokenizing or
+ * compiling can be reported as an ExpressionException pointing at the offending character.
+ */
 public class Tokenizer {
-    private List<Token> tokens = new ArrayList<>();
-
-    public Tokenizer(String expression) throws Exception {
-        // Remove any whitespace from expression
-        expression = expression.replaceAll("\\s", "");
-
-        List<String> expressionTokens = List.of(expression.split(""));
-
-        List<String> characterCombination = new ArrayList<>();
-
-        // Parse and determine the type of the tokens in the expression
-        for (int exprTokenIdx = 0; exprTokenIdx < expressionTokens.size(); exprTokenIdx++) {
-            String exprToken = expressionTokens.get(exprTokenIdx);
-            TokenType tokenType;
-
-            if (isNumeric(exprToken)) {
-                tokenType = TokenType.NUMBER;
-            } else if (isOperator(exprToken)) {
-                tokenType = TokenType.OPERATOR;
-            } else if (isOpeningParentheses(exprToken)) {
-                tokenType = TokenType.OPENING_PARENTHESES;
-            } else if (isClosingParentheses(exprToken)) {
-                tokenType = TokenType.CLOSING_PARENTHESES;
-            } else if (isCharacter(exprToken)) {
-                characterCombination.add(exprToken);
-
-                if ((exprTokenIdx + 1) != expressionTokens.size()) {
-                    continue;
-                } else {
-                    tokenType = TokenType.VARIABLE;
-                }
-            } else {
-                throw new Exception("Invalid expression : " + exprToken);
-            }
-
-            // If there is a character combination in the expression, check whether it
-            // matches an internal function otherwise treat it as a variable.
-            if ((!isCharacter(exprToken) && characterCombination.size() != 0) ||
-                    (isCharacter(exprToken) && ((exprTokenIdx + 1) == expressionTokens.size()))) {
-                String characterCombo = String.join("", characterCombination);
-
-                Function determinedFunction = determineFunction(characterCombo);
-
-                if (determinedFunction == null) {
-                    for (int variableIdx = 0; variableIdx < characterCombination.size(); variableIdx++) {
-                        String variable = characterCombination.get(variableIdx);
-
-                        int variableTokenPrecedence = -1;
-
-                        try {
-                            variableTokenPrecedence = getPrecedence(variable, TokenType.VARIABLE);
-                        } catch (Exception e) {
-                            System.out.println(e.getMessage());
-                            System.exit(1);
-                        }
-
-                        Token variableToken = new Token(variable, variableTokenPrecedence, TokenType.VARIABLE);
-
-                        tokens.add(variableToken);
-
-                        // Expressions like ax*2 become a * x * 2
-                        if (variableIdx + 1 != characterCombination.size()) {
-                            tokens.add(new Token("*", TokenPrecedence.MULTIPLY.getPrecedence(), TokenType.OPERATOR));
-                        }
-                    }
-                } else {
-                    switch (determinedFunction) {
-                        case SIN -> tokens.add(new Token("SIN", TokenPrecedence.FUNCTION.getPrecedence(), TokenType.FUNCTION));
-                        case COS -> tokens.add(new Token("COS", TokenPrecedence.FUNCTION.getPrecedence(), TokenType.FUNCTION));
-                        case TAN -> tokens.add(new Token("TAN", TokenPrecedence.FUNCTION.getPrecedence(), TokenType.FUNCTION));
-                    }
-                }
-
-                characterCombination.clear();
-            }
+    private final List<Token> tokens = new ArrayList<>();
 
-            int tokenPrecedence = -1;
+    private final String expression;
+    private int position = 0;
 
-            try {
-                tokenPrecedence = getPrecedence(exprToken, tokenType);
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-                System.exit(1);
-            }
+    // Position where the token that is being read started
+    private int start = 0;
 
-            Token token = new Token(exprToken, tokenPrecedence, tokenType);
+    private final StringBuilder buffer = new StringBuilder();
 
-            tokens.add(token);
-        }
+    private final FunctionRegistry functions;
 
-        while (foundConsecutiveOperators()) {
-            tokenizeOperators();
-        }
-
-        tokenizeNumbers();
-        tokenizeParentheses();
-        tokenizeNumbersWithOperators();
+    public Tokenizer(String expression) throws ExpressionException {
+        this(expression, FunctionRegistry.getDefault());
     }
 
-    private boolean foundConsecutiveOperators() {
-        for (int i = 0; i < this.tokens.size(); i++) {
-            Token token = this.tokens.get(i);
-
-            if (i + 1 != this.tokens.size()) {
-                Token nextToken = this.tokens.get(i + 1);
-                String combinedOp = token.getValue() + nextToken.getValue();
-
-                if (combinedOp.equals("+-") || combinedOp.equals("-+") || combinedOp.equals("--") || combinedOp.equals("++")) {
-                    return true;
-                }
+    public Tokenizer(String expression, FunctionRegistry functions) throws ExpressionException {
+        this.expression = expression;
+        this.functions = functions;
+
+        while (skipWhitespace()) {
+            char c = this.expression.charAt(this.position);
+            this.start = this.position;
+
+            if (expectsOperand() && (c == '+' || c == '-')) {
+                tokenizeSign();
+            } else if (isNumeric(c)) {
+                tokenizeNumber("");
+            } else if (isCharacter(c)) {
+                tokenizeCharacters();
+            } else if (isOperator(c)) {
+                addToken(String.valueOf(c), TokenType.OPERATOR);
+                this.position++;
+            } else if (isOpeningParentheses(c)) {
+                addToken("(", TokenType.OPENING_PARENTHESES);
+                this.position++;
+            } else if (isClosingParentheses(c)) {
+                addToken(")", TokenType.CLOSING_PARENTHESES);
+                this.position++;
+            } else if (c == ',') {
+                addToken(",", TokenType.COMMA);
+                this.position++;
+            } else {
+                throw new ExpressionException(ErrorKind.INVALID_CHARACTER, this.position,
+                        "Invalid character '" + c + "' at position " + this.position);
             }
         }
-        return false;
     }
 
-    private void tokenizeParentheses() {
-        List<Token> newTokens = new ArrayList<>();
-
-        for (int i = 0; i < this.tokens.size(); i++) {
-            Token token = this.tokens.get(i);
-
-            if (i + 1 != this.tokens.size()) {
-                Token nextToken = this.tokens.get(i + 1);
+    /*
+     * Reads a run of unary signs. A sign directly in front of a number becomes part of the number,
+     * e.g. "-5" or "(-5". In front of anything else a negative sign becomes a negation, which the
+     * shunting yard applies after exponents but before everything else (see TokenPrecedence.NEGATE).
+     */
+    private void tokenizeSign() throws ExpressionException {
+        boolean negative = false;
 
-                if ((token.getTokenType() == TokenType.OPERATOR && nextToken.getTokenType() == TokenType.OPENING_PARENTHESES && (token.getValue().equals("+") || token.getValue().equals("-"))) ||
-                        token.getTokenType() == TokenType.OPERATOR && nextToken.getTokenType() == TokenType.FUNCTION && (token.getValue().equals("+") || token.getValue().equals("-"))) {
-                    newTokens.add(token);
-                    newTokens.add(new Token("1", TokenPrecedence.NUMBER.getPrecedence(), TokenType.NUMBER));
-                    newTokens.add(new Token("*", TokenPrecedence.MULTIPLY.getPrecedence(), TokenType.OPERATOR));
-                    continue;
-                }
+        while (skipWhitespace() && (peek() == '+' || peek() == '-')) {
+            if (peek() == '-') {
+                negative = !negative;
             }
-            newTokens.add(token);
+            this.position++;
         }
 
-        this.tokens = newTokens;
-    }
+        if (!skipWhitespace()) {
+            throw new ExpressionException(ErrorKind.UNEXPECTED_END, this.position,
+                    "Unexpected end of expression at position " + this.position);
+        }
 
-    private void tokenizeOperators() {
-        List<Token> newTokens = new ArrayList<>();
+        if (isNumeric(peek())) {
+            tokenizeNumber(negative ? "-" : "");
+        } else if (negative) {
+            add(new Token("-", FunctionRegistry.NEGATE, TokenPrecedence.NEGATE.getPrecedence()));
+        }
+    }
 
-        for (int i = 0; i < this.tokens.size(); i++) {
+    /*
+     * Combines consecutive numeric characters into one token
+     * e.g.: "5.5+5.5" becomes {"5.5", "+", "5.5"}
+     */
+    private void tokenizeNumber(String sign) throws ExpressionException {
+        this.buffer.setLength(0);
+        this.buffer.append(sign);
 
-            Token token = this.tokens.get(i);
+        while (skipWhitespace() && isNumeric(peek())) {
+            this.buffer.append(peek());
+            this.position++;
+        }
 
-            if (i + 1 != this.tokens.size()) {
-                Token nextToken = this.tokens.get(i + 1);
+        String number = this.buffer.toString();
 
-                String combinedOp = token.getValue() + nextToken.getValue();
+        // Parsed once here, malformed numbers like "1.2.3" fail while tokenizing rather than while evaluating
+        double value;
 
-                String newOp = null;
+        try {
+            value = Double.parseDouble(number);
+        } catch (NumberFormatException e) {
+            throw new ExpressionException(ErrorKind.INVALID_NUMBER, this.start,
+                    "Invalid number \"" + number + "\" at position " + this.start);
+        }
 
-                if (combinedOp.equals("+-") || combinedOp.equals("-+")) {
-                    newOp = "-";
-                } else if (combinedOp.equals("--") || combinedOp.equals("++")) {
-                    newOp = "+";
-                }
+        addNumber(number, value);
+    }
 
-                if (newOp != null) {
-                    int precedence = -1;
+    /*
+     * If the character combination matches a registered function it becomes a function token,
+     * otherwise every character is treated as a separate variable, e.g. "ax" becomes "a * x".
+     * Digits directly after the letters are only part of the name if that names a function,
+     * e.g. "atan2(y, x)", while "x2" stays "x * 2".
+     */
+    private void tokenizeCharacters() {
+        this.buffer.setLength(0);
 
-                    try {
-                        precedence = getPrecedence(newOp, TokenType.OPERATOR);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        System.exit(1);
-                    }
+        while (skipWhitespace() && isCharacter(peek())) {
+            this.buffer.append(peek());
+            this.position++;
+        }
 
-                    token = new Token(newOp, precedence, TokenType.OPERATOR);
+        int digitsEnd = this.position;
 
-                    i += 1;
-                }
-            }
-            newTokens.add(token);
+        while (digitsEnd < this.expression.length() && Character.isDigit(this.expression.charAt(digitsEnd))) {
+            digitsEnd++;
         }
 
-        this.tokens = newTokens;
-    }
+        if (digitsEnd > this.position) {
+            FunctionDefinition function = this.functions.get(this.buffer + this.expression.substring(this.position, digitsEnd));
 
-    private void tokenizeNumbersWithOperators() {
-        List<Token> newTokens = new ArrayList<>();
+            if (function != null) {
+                this.position = digitsEnd;
+                addFunction(function);
+                return;
+            }
+        }
 
-        for (int i = 0; i < getTokens().size(); i++) {
-            Token token = getTokens().get(i);
+        FunctionDefinition function = this.functions.get(this.buffer.toString());
 
-            if (getTokens().size() > i + 1) {
-                Token nextToken = getTokens().get(i + 1);
+        if (function != null) {
+            addFunction(function);
+            return;
+        }
 
-                if ((token.getValue().equals("*") || token.getValue().equals("/")) && (nextToken.getValue().equals("-") || nextToken.getValue().equals("+"))) {
-                    newTokens.add(token);
-                    newTokens.add(new Token(nextToken.getValue() + "1", TokenPrecedence.NUMBER.getPrecedence(), TokenType.NUMBER));
-                    newTokens.add(new Token("*", TokenPrecedence.MULTIPLY.getPrecedence(), TokenType.OPERATOR));
+        for (int i = 0; i < this.buffer.length(); i++) {
+            this.start = this.expression.indexOf(this.buffer.charAt(i), this.start);
+            addToken(String.valueOf(this.buffer.charAt(i)), TokenType.VARIABLE);
+            this.start++;
+        }
+    }
 
-                    i += 1;
-                    continue;
-                }
+    private void addNumber(String value, double number) {
+        addImplicitMultiplication(TokenType.NUMBER);
 
-                if (i == 0 && token.getTokenType() == TokenType.OPERATOR && nextToken.getTokenType() == TokenType.NUMBER ||
-                        i == 0 && token.getTokenType() == TokenType.OPERATOR && nextToken.getTokenType() == TokenType.FUNCTION ||
-                    token.getTokenType() == TokenType.OPENING_PARENTHESES && nextToken.getTokenType() == TokenType.OPERATOR) {
+        add(new Token(value, number, TokenPrecedence.NUMBER.getPrecedence()));
+    }
 
-                    int precedence = -1;
-                    String combinedNumber;
+    private void addToken(String value, TokenType tokenType) {
+        addImplicitMultiplication(tokenType);
 
-                    if (token.getTokenType() == TokenType.OPENING_PARENTHESES && nextToken.getTokenType() == TokenType.OPERATOR && getTokens().size() > i + 2) {
-                        Token opToken = getTokens().get(i + 1);
-                        Token numberToken = getTokens().get(i + 2);
+        int precedence = tokenType == TokenType.FUNCTION
+                ? TokenPrecedence.FUNCTION.getPrecedence()
+                : getPrecedence(value, tokenType);
 
-                        if (numberToken.getTokenType() == TokenType.FUNCTION) {
-                            newTokens.add(new Token(opToken.getValue() + "1", TokenPrecedence.NUMBER.getPrecedence(), TokenType.NUMBER));
-                            newTokens.add(new Token("*", TokenPrecedence.MULTIPLY.getPrecedence(), TokenType.OPERATOR));
-                            newTokens.add(numberToken);
+        add(new Token(value, precedence, tokenType));
+    }
 
-                            i += 2;
+    private void addFunction(FunctionDefinition function) {
+        addImplicitMultiplication(TokenType.FUNCTION);
 
-                            continue;
-                        }
+        add(new Token(function.getName().toUpperCase(Locale.ROOT), function, TokenPrecedence.FUNCTION.getPrecedence()));
+    }
 
-                        combinedNumber = opToken.getValue() + numberToken.getValue();
-                        newTokens.add(token);
-                        i += 2;
-                    } else {
-                        combinedNumber = token.getValue() + nextToken.getValue();
-                        i += 1;
-                    }
+    private void add(Token token) {
+        token.position = this.start;
+        this.tokens.add(token);
+    }
 
-                    try {
-                        precedence = getPrecedence(combinedNumber, TokenType.NUMBER);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        System.exit(1);
-                    }
+    /*
+     * Two operands next to each other are multiplied, e.g. "2x", "ab" or "(1+2)(3+4)"
+     */
+    private void addImplicitMultiplication(TokenType tokenType) {
+        if (startsOperand(tokenType) && endsOperand()) {
+            add(new Token("*", TokenPrecedence.MULTIPLY.getPrecedence(), TokenType.OPERATOR));
+        }
+    }
 
-                    token = new Token(combinedNumber, precedence, TokenType.NUMBER);
-                }
-            }
+    private boolean startsOperand(TokenType tokenType) {
+        return switch (tokenType) {
+            case NUMBER, VARIABLE, FUNCTION, OPENING_PARENTHESES -> true;
+            default -> false;
+        };
+    }
 
-            newTokens.add(token);
+    private boolean endsOperand() {
+        if (this.tokens.isEmpty()) {
+            return false;
         }
 
-        this.tokens = newTokens;
+        return switch (this.tokens.get(this.tokens.size() - 1).getTokenType()) {
+            case NUMBER, VARIABLE, CLOSING_PARENTHESES -> true;
+            default -> false;
+        };
     }
 
     /*
-     * Combines multiple numeric tokens into one token if they were entered consecutively
-     * e.g.: Array {"5", ".", "5", "+", "5", ".", "5"} becomes {"5.5", "+", "5.5"}
+     * A sign is unary at the start of the expression, after an operator, after an opening parentheses
+     * and at the start of a function argument
      */
-    private void tokenizeNumbers() {
-        List<Token> newTokens = new ArrayList<>();
-        List<Token> numberTokens = new ArrayList<>();
-
-        for (int i = 0; i < getTokens().size(); i++) {
-            Token token = getTokens().get(i);
-
-            if (token.getTokenType() == TokenType.NUMBER) {
-                numberTokens.add(token);
-            }
-
-            if (token.getTokenType() == TokenType.OPERATOR ||
-                    token.getTokenType() == TokenType.OPENING_PARENTHESES ||
-                    token.getTokenType() == TokenType.CLOSING_PARENTHESES ||
-                    token.getTokenType() == TokenType.FUNCTION ||
-                    token.getTokenType() == TokenType.VARIABLE ||
-                    i + 1 == getTokens().size()) {
-                StringBuilder stringBuilder = new StringBuilder();
-
-                for (Token nToken : numberTokens) {
-                    stringBuilder.append(nToken.getValue());
-                }
-
-                int precedence = -1;
-
-                try {
-                    precedence = getPrecedence(stringBuilder.toString(), TokenType.NUMBER);
-                } catch (Exception e) {
-                    System.out.println(e.getMessage());
-                    System.exit(1);
-                }
-
-                if (!stringBuilder.toString().equals("")) {
-                    Token numberToken = new Token(stringBuilder.toString(), precedence, TokenType.NUMBER);
-
-                    newTokens.add(numberToken);
-                }
+    private boolean expectsOperand() {
+        if (this.tokens.isEmpty()) {
+            return true;
+        }
 
-                if (i + 1 != getTokens().size() || token.getTokenType() == TokenType.CLOSING_PARENTHESES) {
-                    newTokens.add(token);
-                }
+        return switch (this.tokens.get(this.tokens.size() - 1).getTokenType()) {
+            case OPERATOR, OPENING_PARENTHESES, COMMA -> true;
+            default -> false;
+        };
+    }
 
-                numberTokens.clear();
-            }
+    /*
+     * Moves past any whitespace and returns whether there are characters left to read
+     */
+    private boolean skipWhitespace() {
+        while (this.position < this.expression.length() && Character.isWhitespace(this.expression.charAt(this.position))) {
+            this.position++;
         }
 
-        this.tokens = newTokens;
+        return this.position < this.expression.length();
     }
 
-    //private
+    private char peek() {
+        return this.expression.charAt(this.position);
+    }
 
     /*
      * Gets the precedence of operators according to PEMDAS
      */
-    public static int getPrecedence(String exprToken, TokenType tokenType) throws Exception {
+    public static int getPrecedence(String exprToken, TokenType tokenType) {
         if (tokenType == TokenType.NUMBER || tokenType == TokenType.VARIABLE) {
             return 1;
-        } else if (tokenType == TokenType.OPENING_PARENTHESES || tokenType == TokenType.CLOSING_PARENTHESES) {
+        } else if (tokenType == TokenType.OPENING_PARENTHESES || tokenType == TokenType.CLOSING_PARENTHESES
+                || tokenType == TokenType.COMMA) {
             return 0;
         } else {
             return switch (exprToken) {
@@ -321,60 +270,32 @@ public class Tokenizer {
                 case "/" -> TokenPrecedence.DIVIDE.getPrecedence();
                 case "*" -> TokenPrecedence.MULTIPLY.getPrecedence();
                 case "^" -> TokenPrecedence.EXPONENTIAL.getPrecedence();
-                default -> throw new Exception("Invalid token: " + exprToken);
+                default -> throw new IllegalArgumentException("Invalid token: " + exprToken);
             };
         }
     }
 
-    private boolean isNumeric(String exprToken) {
-        return switch (exprToken) {
-            case "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", "." -> true;
-            default -> false;
-        };
+    private boolean isNumeric(char c) {
+        return (c >= '0' && c <= '9') || c == '.';
     }
 
-    private boolean isOperator(String exprToken) {
-        return switch (exprToken) {
-            case "+", "-", "*", "/", "^" -> true;
+    private boolean isOperator(char c) {
+        return switch (c) {
+            case '+', '-', '*', '/', '^' -> true;
             default -> false;
         };
     }
 
-    private boolean isCharacter(String exprToken) {
-        char[] alphabet = {
-                'A', 'B', 'C', 'D',
-                'E', 'F', 'G', 'H',
-                'I', 'J', 'K', 'L',
-                'M', 'N', 'O', 'P',
-                'Q', 'R', 'S', 'T',
-                'U', 'V', 'W', 'X',
-                'Y', 'Z'
-        };
-
-        for (char c : alphabet) {
-            if (exprToken.toUpperCase().equals(String.valueOf(c))) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private boolean isOpeningParentheses(String exprToken) {
-        return exprToken.equals("(");
+    private boolean isCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
-    private boolean isClosingParentheses(String exprToken) {
-        return exprToken.equals(")");
+    private boolean isOpeningParentheses(char c) {
+        return c == '(';
     }
 
-    private Function determineFunction(String tokenCombination) {
-        return switch (tokenCombination.toUpperCase()) {
-            case "SIN" -> Function.SIN;
-            case "COS" -> Function.COS;
-            case "TAN" -> Function.TAN;
-            default -> null;
-        };
+    private boolean isClosingParentheses(char c) {
+        return c == ')';
     }
 
     public List<Token> getTokens() {
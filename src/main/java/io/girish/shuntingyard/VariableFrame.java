@@ -0,0 +1,88 @@
+package io.girish.shuntingyard;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+ * Values of the variables of a SymbolTable, indexed by slot. Variables that have not been set are NaN.
+ *
+ * Frames are cheap to create and are not thread-safe: each one is meant to be owned by one caller
+ * (or thread) at a time, e.g. one frame per plot, per worker or per request.
+ */
+public final class VariableFrame {
+    private final SymbolTable symbolTable;
+    private double[] values;
+
+    VariableFrame(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+        this.values = new double[symbolTable.size()];
+
+        Arrays.fill(this.values, Double.NaN);
+    }
+
+    public void set(int slot, double value) {
+        ensureCapacity(slot);
+        this.values[slot] = value;
+    }
+
+    public double get(int slot) {
+        ensureCapacity(slot);
+        return this.values[slot];
+    }
+
+    /*
+     * Sets a variable by name, ignoring names that are not part of the symbol table
+     */
+    public void set(String name, double value) {
+        int slot = this.symbolTable.slotOf(name);
+
+        if (slot < 0) {
+            return;
+        }
+
+        set(slot, value);
+    }
+
+    /*
+     * Copies the values of all variables in the map that are part of the symbol table
+     */
+    public void bind(Map<String, Double> expressionVariables) {
+        for (Map.Entry<String, Double> exprVar : expressionVariables.entrySet()) {
+            set(exprVar.getKey(), exprVar.getValue());
+        }
+    }
+
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    /*
+     * Backing array of the frame, indexed by slot
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /*
+     * Backing array of the frame with room for the given number of slots of the symbol table, for
+     * programs compiled after the frame was created
+     */
+    double[] getValues(int size) {
+        ensureCapacity(size - 1);
+        return values;
+    }
+
+    /*
+     * The symbol table may have grown since this frame was created, e.g. by compiling another
+     * expression against it. Slots added since then are NaN like any other variable that is not set.
+     */
+    private void ensureCapacity(int slot) {
+        if (slot < this.values.length || slot >= this.symbolTable.size()) {
+            return;
+        }
+
+        int oldLength = this.values.length;
+        this.values = Arrays.copyOf(this.values, this.symbolTable.size());
+        Arrays.fill(this.values, oldLength, this.values.length, Double.NaN);
+    }
+}
@@ -0,0 +1,30 @@
+package io.girish.shuntingyard.enums;
+
+public enum ErrorKind {
+    // Syntax errors, reported once when an expression is compiled
+    INVALID_CHARACTER,
+    INVALID_NUMBER,
+    UNEXPECTED_END,
+    MISSING_OPERAND,
+    MISSING_OPERATOR,
+    ARGUMENT_COUNT,
+    UNMATCHED_PARENTHESIS,
+    EMPTY_EXPRESSION,
+
+    // Reported when an expression is evaluated without a value for one of its variables
+    UNKNOWN_VARIABLE,
+
+    // Reported when a range has no valid step, or arrays evaluated element-wise differ in length
+    INVALID_RANGE,
+    LENGTH_MISMATCH,
+
+    // Reported when a variable would depend on itself through the variables its definition uses
+    CIRCULAR_DEFINITION;
+
+    public boolean isSyntaxError() {
+        return switch (this) {
+            case UNKNOWN_VARIABLE, INVALID_RANGE, LENGTH_MISMATCH, CIRCULAR_DEFINITION -> false;
+            default -> true;
+        };
+    }
+}
@@ -0,0 +1,6 @@
+package io.girish.shuntingyard.enums;
+
+public enum ExecutionMode {
+    INTERPRETED,
+    COMPILED
+}
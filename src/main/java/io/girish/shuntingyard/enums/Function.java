@@ -1,7 +0,0 @@
-package io.girish.shuntingyard.enums;
-
-public enum Function {
-    SIN,
-    COS,
-    TAN
-}
@@ -0,0 +1,8 @@
+package io.girish.shuntingyard.enums;
+
+public enum MathMode {
+    // Math.sin, Math.cos and Math.tan, as accurate as a double allows
+    STRICT,
+    // FastTrig approximations, accurate to about 4e-8
+    FAST
+}
@@ -6,6 +6,8 @@ public enum TokenPrecedence {
     SUBTRACT(1),
     DIVIDE(2),
     MULTIPLY(3),
+    // Unary minus, applied before multiplication but after exponents: "-x^2" is -(x^2), "2^-x" is 2^(-x)
+    NEGATE(3),
     FUNCTION(5),
     EXPONENTIAL(4);
 
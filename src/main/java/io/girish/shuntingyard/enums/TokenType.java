@@ -6,5 +6,7 @@ public enum TokenType {
     OPENING_PARENTHESES,
     CLOSING_PARENTHESES,
     FUNCTION,
-    VARIABLE
+    VARIABLE,
+    // Separates the arguments of a function call
+    COMMA
 }
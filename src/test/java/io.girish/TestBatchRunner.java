@@ -0,0 +1,126 @@
+package io.girish;
+
+import io.girish.cli.BatchRunner;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestBatchRunner {
+    private static String run(BatchRunner batchRunner, String input) throws Exception {
+        StringWriter output = new StringWriter();
+
+        batchRunner.run(new BufferedReader(new StringReader(input)), new BufferedWriter(output));
+
+        return output.toString().replace(System.lineSeparator(), "\n");
+    }
+
+    @Test
+    @DisplayName("batch evaluates lines in order with the declared variables")
+    void Test1() throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+
+        String output = run(batchRunner, """
+                a = 2
+                
+                2  *  a
+                b=a*3
+                b-1/3
+                a=5
+                2*a
+                """);
+
+        assertEquals("""
+                Stored variable a=2.0
+                2 * a=4
+                Stored variable b=6.0
+                b-1/3=5.66666667
+                Stored variable a=5.0
+                Updated variable b=15.0
+                2*a=10
+                """, output);
+        assertEquals(6, batchRunner.getLines());
+        assertEquals(0, batchRunner.getErrors());
+    }
+
+    @Test
+    @DisplayName("batch reports errors and keeps going, and stops at exit")
+    void Test2() throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+
+        String output = run(batchRunner, """
+                1+$
+                2*c
+                plot
+                1+1
+                exit
+                3+3
+                """);
+
+        assertEquals("""
+                Error in expression: "1+$" (Invalid character '$' at position 2).
+                Error in expression: "2*c" (Unknown variable: c).
+                Error in expression: "plot" (not available in batch mode).
+                1+1=2
+                """, output);
+        assertEquals(5, batchRunner.getLines());
+        assertEquals(3, batchRunner.getErrors());
+    }
+
+    @Test
+    @DisplayName("batch streams thousands of lines")
+    void Test3() throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+        StringBuilder input = new StringBuilder("x=0\n");
+
+        for (int i = 1; i <= 5000; i++) {
+            input.append("x=x+1\n").append("x*x\n");
+        }
+
+        String output = run(batchRunner, input.toString());
+        String[] lines = output.split("\n");
+
+        assertEquals(10001, lines.length);
+        assertEquals("x*x=25000000", lines[lines.length - 1]);
+        assertEquals(5000.0, batchRunner.getExpressionVariables().get("x"));
+    }
+
+    @Test
+    @DisplayName("batch declares and evaluates arrays")
+    void Test4() throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+
+        String output = run(batchRunner, """
+                x=0:45:90
+                2*sin(x)
+                x+(1:2)
+                """);
+
+        assertEquals("""
+                Stored variable x=[0, 45, 90]
+                2*sin(x)=[0, 1.41421357, 2]
+                Error in expression: "x+(1:2)" (Range bounds must be numbers: x+(1).
+                """, output);
+    }
+
+    @Test
+    @DisplayName("batch classifies lines like the REPL")
+    void Test5() throws Exception {
+        BatchRunner batchRunner = new BatchRunner();
+
+        String output = run(batchRunner, """
+                a=5=
+                a*2
+                """);
+
+        assertEquals("""
+                Stored variable a=5.0
+                a*2=10
+                """, output);
+    }
+}
@@ -0,0 +1,100 @@
+package io.girish;
+
+import io.girish.core.CsvEvaluator;
+import io.girish.shuntingyard.ExpressionException;
+import io.girish.shuntingyard.ShuntingYard;
+import io.girish.shuntingyard.enums.ErrorKind;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCsvEvaluator {
+    @TempDir
+    Path directory;
+
+    private List<String> evaluate(CsvEvaluator csvEvaluator, String csv, Map<String, Double> expressionVariables) throws Exception {
+        Path input = this.directory.resolve("input.csv");
+        Path output = this.directory.resolve("output.txt");
+
+        Files.writeString(input, csv);
+
+        CsvEvaluator.Result result = csvEvaluator.evaluate(input, output, expressionVariables);
+        List<String> lines = Files.readAllLines(output);
+
+        assertEquals(lines.size(), result.getRows());
+
+        return lines;
+    }
+
+    @Test
+    @DisplayName("csv columns are bound to variables by header name")
+    void Test1() throws Exception {
+        CsvEvaluator csvEvaluator = new CsvEvaluator(ShuntingYard.compile("x*y+a"));
+
+        List<String> results = evaluate(csvEvaluator, """
+                id, y ,label,x
+                1,2,first,3
+                2,0.5,second,-4
+                
+                3,1e2,third,2.5E-1\r
+                """, Map.of("a", 1.0));
+
+        assertEquals(List.of("7", "-1", "26"), results);
+    }
+
+    @Test
+    @DisplayName("csv fields that are empty, invalid or missing are NaN")
+    void Test2() throws Exception {
+        CsvEvaluator csvEvaluator = new CsvEvaluator(ShuntingYard.compile("x+y"));
+
+        List<String> results = evaluate(csvEvaluator, "x,y\n1,2\n,2\n1,abc\n1\n-1.5,NaN\n4,2", Map.of());
+
+        assertEquals(List.of("3", "NaN", "NaN", "NaN", "NaN", "6"), results);
+    }
+
+    @Test
+    @DisplayName("csv rows are the same when the file is mapped in small parts")
+    void Test3() throws Exception {
+        StringBuilder csv = new StringBuilder("x,y\n");
+
+        for (int i = 0; i < 10000; i++) {
+            csv.append(i * 0.001).append(',').append(-i).append('\n');
+        }
+
+        CsvEvaluator whole = new CsvEvaluator(ShuntingYard.compile("sin(x)*y"));
+        CsvEvaluator parts = new CsvEvaluator(ShuntingYard.compile("sin(x)*y"));
+        parts.setMapSize(100);
+
+        List<Long> progress = new ArrayList<>();
+        parts.setProgressListener((rows, bytesRead, totalBytes) -> progress.add(rows));
+
+        List<String> expected = evaluate(whole, csv.toString(), Map.of());
+
+        assertEquals(10000, expected.size());
+        assertEquals(expected, evaluate(parts, csv.toString(), Map.of()));
+        assertEquals(10000L, progress.get(progress.size() - 1));
+        assertTrue(progress.size() > 2);
+    }
+
+    @Test
+    @DisplayName("csv rejects variables that are neither columns nor declared")
+    void Test4() throws Exception {
+        CsvEvaluator csvEvaluator = new CsvEvaluator(ShuntingYard.compile("x*z"));
+
+        ExpressionException e = assertThrows(ExpressionException.class,
+                () -> evaluate(csvEvaluator, "x,y\n1,2\n", Map.of()));
+
+        assertEquals(ErrorKind.UNKNOWN_VARIABLE, e.getKind());
+        assertEquals("Unknown variable: z", e.getMessage());
+    }
+}
@@ -0,0 +1,211 @@
+package io.girish;
+
+import io.girish.core.Graph;
+import io.girish.core.PPMColor;
+import io.girish.core.enums.PPMFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestGraph {
+    @TempDir
+    Path directory;
+
+    private static int sineAt(int i) {
+        return (int) Math.round(40 * Math.sin(Math.toRadians(i)));
+    }
+
+    @Test
+    @DisplayName("drawing with a known viewport gives the same image as keeping the points")
+    void Test1() throws Exception {
+        Graph kept = new Graph(200, 100);
+        Graph streamed = new Graph(200, 100);
+
+        streamed.setViewport(-150, 149, -40, 40);
+
+        for (int i = -150; i < 150; i++) {
+            kept.addPoint(i, sineAt(i * 3));
+            streamed.addPoint(i, sineAt(i * 3));
+        }
+
+        Path keptImage = this.directory.resolve("kept.ppm");
+        Path streamedImage = this.directory.resolve("streamed.ppm");
+
+        kept.writeImage(keptImage.toString());
+        streamed.writeImage(streamedImage.toString());
+
+        assertArrayEquals(Files.readAllBytes(keptImage), Files.readAllBytes(streamedImage));
+    }
+
+    @Test
+    @DisplayName("points added before the viewport is set are drawn as well")
+    void Test2() throws Exception {
+        Graph kept = new Graph(50, 50);
+        Graph streamed = new Graph(50, 50);
+
+        for (int i = 0; i < 20; i++) {
+            kept.addPoint(i, i * i % 17);
+            streamed.addPoint(i, i * i % 17);
+
+            if (i == 9) {
+                streamed.setViewport(0, 19, 0, 16);
+            }
+        }
+
+        Path keptImage = this.directory.resolve("kept.ppm");
+        Path streamedImage = this.directory.resolve("streamed.ppm");
+
+        kept.writeImage(keptImage.toString());
+        streamed.writeImage(streamedImage.toString());
+
+        assertArrayEquals(Files.readAllBytes(keptImage), Files.readAllBytes(streamedImage));
+    }
+
+    @Test
+    @DisplayName("P6 images hold one byte per color component")
+    void Test3() throws Exception {
+        Graph graph = new Graph(4, 3);
+        graph.setLineColor(PPMColor.rgb(10, 200, 30));
+        graph.setBackgroundColor(PPMColor.BLACK);
+
+        graph.setViewport(0, 3, 0, 0);
+        graph.addPoint(1, 0);
+
+        Path p6 = this.directory.resolve("graph.ppm");
+        Path p3 = this.directory.resolve("graph-plain.ppm");
+
+        graph.writeImage(p6.toString());
+        graph.writeImage(p3.toString(), PPMFormat.P3);
+
+        byte[] header = "P6\n4 3\n255\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] image = Files.readAllBytes(p6);
+
+        assertEquals(header.length + 4 * 3 * 3, image.length);
+        assertArrayEquals(header, Arrays.copyOf(image, header.length));
+
+        // The translation moves the point to column 2 of the middle row
+        int pixel = header.length + (1 * 4 + 2) * 3;
+        assertEquals(10, image[pixel] & 0xFF);
+        assertEquals(200, image[pixel + 1] & 0xFF);
+        assertEquals(30, image[pixel + 2] & 0xFF);
+
+        List<String> lines = Files.readAllLines(p3);
+        assertEquals(List.of("P3", "4 3", "255"), lines.subList(0, 3));
+        assertEquals("0 0 0", lines.get(3));
+        assertEquals("10 200 30", lines.get(3 + 1 * 4 + 2));
+    }
+
+    @Test
+    @DisplayName("mapped images are rendered tile by tile into the file")
+    void Test4() throws Exception {
+        Graph inHeap = new Graph(700, 300);
+        Graph mapped = new Graph(700, 300);
+
+        for (Graph graph : List.of(inHeap, mapped)) {
+            graph.setLineColor(PPMColor.BLUE);
+            graph.setBackgroundColor(PPMColor.rgb(250, 250, 240));
+            graph.setViewport(-1000, 1000, -40, 40);
+        }
+
+        for (int x = -1000; x <= 1000; x++) {
+            inHeap.addPoint(x, sineAt(x));
+        }
+
+        Path inHeapImage = this.directory.resolve("heap.ppm");
+        Path mappedImage = this.directory.resolve("mapped.ppm");
+
+        inHeap.writeImage(inHeapImage.toString());
+        mapped.writeMappedImage(mappedImage.toString(), tile -> {
+            for (int x = tile.getMinX(); x <= tile.getMaxX(); x++) {
+                tile.addPoint(x, sineAt(x));
+            }
+        });
+
+        assertArrayEquals(Files.readAllBytes(inHeapImage), Files.readAllBytes(mappedImage));
+    }
+
+    private static int countLinePixels(Graph graph, int fromX, int toX) {
+        int count = 0;
+
+        for (int x = fromX; x < toX; x++) {
+            for (int y = 0; y < graph.getHeight(); y++) {
+                if (graph.getPixel(x, y) == graph.getLineColor()) {
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Test
+    @DisplayName("line points are connected")
+    void Test5() {
+        Graph graph = new Graph(100, 100);
+        graph.setViewport(0, 10, 0, 50);
+
+        graph.addLinePoint(0, 0);
+        graph.addLinePoint(10, 50);
+        graph.breakLine();
+
+        // One pixel for every row the line passes through
+        assertEquals(51, countLinePixels(graph, 0, 100));
+
+        // The line runs from (45, 25) to (55, 75) in the image, without gaps between the rows
+        for (int y = 25; y <= 75; y++) {
+            int pixels = 0;
+
+            for (int x = 45; x <= 55; x++) {
+                pixels += graph.getPixel(x, y) == graph.getLineColor() ? 1 : 0;
+            }
+
+            assertEquals(1, pixels, "row " + y);
+        }
+
+        // Points of separate lines are not connected
+        Graph dots = new Graph(100, 100);
+        dots.setViewport(0, 10, 0, 50);
+
+        dots.addLinePoint(0, 0);
+        dots.breakLine();
+        dots.addLinePoint(10, 50);
+        dots.breakLine();
+
+        assertEquals(2, countLinePixels(dots, 0, 100));
+    }
+
+    @Test
+    @DisplayName("lines are not drawn across asymptotes")
+    void Test6() {
+        Graph graph = new Graph(400, 400);
+        graph.setViewport(-180, 180, -200, 200);
+
+        for (int x = -179; x < 180; x += 4) {
+            graph.addLinePoint(x, (int) Math.round(20 * Math.tan(Math.toRadians(x))));
+        }
+        graph.breakLine();
+
+        // Around the poles at -90 and 90 the curve leaves the image, it does not run from top to bottom
+        int[] poles = {-90, 90};
+
+        for (int pole : poles) {
+            int column = pole + 200;
+            assertTrue(countLinePixels(graph, column - 2, column + 3) < 100, "pole at " + pole);
+        }
+
+        // Between the poles the curve is continuous: every column is drawn
+        for (int x = -75; x <= 75; x++) {
+            assertTrue(countLinePixels(graph, x + 200, x + 201) > 0, "column " + x);
+        }
+    }
+}
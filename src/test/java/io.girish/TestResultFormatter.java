@@ -0,0 +1,86 @@
+package io.girish;
+
+import io.girish.core.ResultFormatter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class TestResultFormatter {
+    private static String decimalFormat(double value) {
+        DecimalFormat df = new DecimalFormat("#.########");
+        df.setRoundingMode(RoundingMode.CEILING);
+
+        String formatted = df.format(value);
+        return formatted.equals("-0") ? "0" : formatted;
+    }
+
+    @Test
+    @DisplayName("formatter rounds like DecimalFormat with CEILING")
+    void Test1() {
+        ResultFormatter resultFormatter = new ResultFormatter();
+
+        double[] values = {0.1, 0.3, 1 / 3.0, -1 / 3.0, 2.0 / 3.0, 4.35, 5.2, -5.2, 1e-8, 5e-9, 1e-9, 9.99e-10,
+                25000000, 9999999.999999999, 1234567.123456789, 1e20, 1e23, -Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (double value : values) {
+            assertEquals(decimalFormat(value), resultFormatter.formatToString(value), "for " + value);
+        }
+
+        assertEquals("0.33333334", resultFormatter.formatToString(1 / 3.0));
+        assertEquals("-0.33333333", resultFormatter.formatToString(-1 / 3.0));
+    }
+
+    @Test
+    @DisplayName("formatter never writes -0")
+    void Test2() {
+        ResultFormatter resultFormatter = new ResultFormatter();
+
+        assertEquals("0", resultFormatter.formatToString(-0.0));
+        assertEquals("0", resultFormatter.formatToString(-1e-12));
+        assertEquals("0", resultFormatter.formatToString(-5e-9));
+    }
+
+    @Test
+    @DisplayName("formatter matches DecimalFormat for random values")
+    void Test3() {
+        ResultFormatter resultFormatter = new ResultFormatter();
+        SplittableRandom random = new SplittableRandom(22);
+
+        for (int i = 0; i < 200_000; i++) {
+            double value = switch (i % 4) {
+                case 0 -> Double.longBitsToDouble(random.nextLong());
+                case 1 -> (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(-12, 18));
+                case 2 -> random.nextLong(-1_000_000_000_000_000L, 1_000_000_000_000_000L) / 1e8;
+                default -> random.nextInt(-1000, 1000) / (double) random.nextInt(1, 1000);
+            };
+
+            assertEquals(decimalFormat(value), resultFormatter.formatToString(value), "for " + value);
+        }
+    }
+
+    @Test
+    @DisplayName("formatter writes into a reusable buffer")
+    void Test4() throws Exception {
+        ResultFormatter resultFormatter = new ResultFormatter();
+        StringWriter output = new StringWriter();
+        StringBuilder sb = new StringBuilder();
+
+        resultFormatter.formatTo(1.5, output);
+        resultFormatter.formatTo(-2.25, output);
+        resultFormatter.formatTo(1e300, sb);
+        resultFormatter.formatTo(7, sb);
+
+        assertEquals("1.5-2.25", output.toString());
+        assertEquals(decimalFormat(1e300) + "7", sb.toString());
+
+        int length = resultFormatter.format(0.125);
+        assertEquals("0.125", new String(resultFormatter.getBuffer(), 0, length));
+    }
+}
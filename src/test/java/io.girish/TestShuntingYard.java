@@ -1,12 +1,35 @@
 package io.girish;
 
+import io.girish.shuntingyard.AdaptiveSampler;
+import io.girish.shuntingyard.CompiledExpression;
+import io.girish.shuntingyard.ExpressionCache;
+import io.girish.shuntingyard.ExpressionException;
+import io.girish.shuntingyard.FastTrig;
+import io.girish.shuntingyard.FunctionRegistry;
+import io.girish.shuntingyard.RangeEvaluator;
 import io.girish.shuntingyard.ShuntingYard;
+import io.girish.shuntingyard.SymbolTable;
+import io.girish.shuntingyard.VariableFrame;
+import io.girish.shuntingyard.enums.ErrorKind;
+import io.girish.shuntingyard.enums.ExecutionMode;
+import io.girish.shuntingyard.enums.MathMode;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestShuntingYard {
     @Test
@@ -258,4 +281,667 @@ public class TestShuntingYard {
 
         assertEquals(2, ShuntingYard.evaluate(expr, expressionVariables));
     }
+
+    @Test
+    @DisplayName("compile once, evaluate a*sin(f*x) for several x")
+    void Test26() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("a*sin(f*x)");
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 40.0);
+        expressionVariables.put("f", 10.0);
+
+        for (double x = 0; x < 10; x += 0.5) {
+            expressionVariables.put("x", x);
+
+            assertEquals(40 * Math.sin(Math.toRadians(10 * x)), compiledExpression.evaluate(expressionVariables), 0.000000001);
+        }
+    }
+
+    @Test
+    @DisplayName("2x + (1 + 2)(3 + 4)")
+    void Test27() throws Exception {
+        String expr = "2x + (1 + 2)(3 + 4)";
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("x", 3.0);
+
+        assertEquals(27, ShuntingYard.evaluate(expr, expressionVariables));
+    }
+
+    @Test
+    @DisplayName("sin(cos(sin(x))) * 2")
+    void Test28() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("sin(cos(sin(x))) * 2");
+
+        assertEquals("x SIN COS SIN 2 *", compiledExpression.toString());
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("x", 45.0);
+
+        double expected = 2 * Math.sin(Math.toRadians(Math.cos(Math.toRadians(Math.sin(Math.toRadians(45))))));
+
+        assertEquals(expected, compiledExpression.evaluate(expressionVariables), 0.000000000000001);
+    }
+
+    @Test
+    @DisplayName("a*x + b with variables bound to slots")
+    void Test29() throws Exception {
+        SymbolTable symbolTable = new SymbolTable();
+        int bSlot = symbolTable.define("b");
+
+        CompiledExpression compiledExpression = ShuntingYard.compile("a*x + b", symbolTable);
+
+        assertEquals(List.of("a", "x", "b"), compiledExpression.getVariables());
+        assertEquals(bSlot, compiledExpression.getSlot("b"));
+
+        VariableFrame frame = compiledExpression.newFrame();
+        frame.set("a", 2);
+        frame.set("b", 1);
+        frame.set(compiledExpression.getSlot("x"), 5);
+
+        assertEquals(11, compiledExpression.evaluate(frame));
+    }
+
+    @Test
+    @DisplayName("unknown variable")
+    void Test30() throws Exception {
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+
+        assertThrows(Exception.class, () -> ShuntingYard.evaluate("2*y", expressionVariables));
+    }
+
+    @Test
+    @DisplayName("compiled execution mode matches the interpreter")
+    void Test31() throws Exception {
+        String[] expressions = {"3+4*2/(1-5)^2^3", "a*sin(f*x)", "2*sin(sin(30)+1)-cos(x)*tan(a)", "-(-x)/5.5"};
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 40.0);
+        expressionVariables.put("f", 10.0);
+        expressionVariables.put("x", 12.5);
+
+        for (String expr : expressions) {
+            CompiledExpression interpreted = ShuntingYard.compile(expr);
+            CompiledExpression compiled = interpreted.withExecutionMode(ExecutionMode.COMPILED);
+
+            assertEquals(ExecutionMode.COMPILED, compiled.getExecutionMode());
+            assertEquals(interpreted.evaluate(expressionVariables), compiled.evaluate(expressionVariables), 0.000000000001);
+        }
+    }
+
+    @Test
+    @DisplayName("constant folding and identity removal")
+    void Test32() throws Exception {
+        String expr = "2*sin(30)*a + (x*1 + 0)/1 - x^0";
+
+        CompiledExpression optimized = ShuntingYard.compile(expr);
+        CompiledExpression unoptimized = ShuntingYard.compile(expr, new SymbolTable(), false);
+
+        assertEquals("2 30 SIN * a * x 1 * 0 + 1 / + x 0 ^ -", unoptimized.toString());
+        assertEquals("0.9999999999999999 a * x + 1.0 -", optimized.toString());
+        assertEquals(6, optimized.getOptimizations().size());
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 3.0);
+        expressionVariables.put("x", 7.0);
+
+        assertEquals(unoptimized.evaluate(expressionVariables), optimized.evaluate(expressionVariables));
+    }
+
+    @Test
+    @DisplayName("a*sin(f*x) + b*sin(f*x)^2 shares sin(f*x)")
+    void Test33() throws Exception {
+        String expr = "a*sin(f*x) + b*sin(f*x)^2";
+
+        CompiledExpression shared = ShuntingYard.compile(expr);
+        CompiledExpression unshared = ShuntingYard.compile(expr, new SymbolTable(), false);
+
+        assertEquals(List.of("shared sin((f * x)) (used 2 times)"), shared.getOptimizations());
+
+        CompiledExpression sharedCompiled = shared.withExecutionMode(ExecutionMode.COMPILED);
+        assertEquals(ExecutionMode.COMPILED, sharedCompiled.getExecutionMode());
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 3.0);
+        expressionVariables.put("b", 5.0);
+        expressionVariables.put("f", 10.0);
+
+        for (double x = -50; x < 50; x += 2.5) {
+            expressionVariables.put("x", x);
+
+            double expected = unshared.evaluate(expressionVariables);
+
+            assertEquals(expected, shared.evaluate(expressionVariables));
+            assertEquals(expected, sharedCompiled.evaluate(expressionVariables));
+        }
+    }
+
+    @Test
+    @DisplayName("expression cache")
+    void Test34() throws Exception {
+        ExpressionCache cache = new ExpressionCache(2);
+
+        CompiledExpression first = cache.get("1 + x");
+
+        assertSame(first, cache.get("1+x"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.get("2+x");
+        cache.get("1+x");
+        cache.get("3+x");
+
+        // "2+x" was the least recently used expression
+        assertEquals(1, cache.getEvictions());
+        assertSame(first, cache.get("1+x"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    @DisplayName("batch evaluation matches row by row evaluation")
+    void Test35() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("a*sin(f*x) + sin(f*x)^2 - x/3");
+
+        double[] xs = new double[1000];
+
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i * 0.37 - 100;
+        }
+
+        double[][] columns = new double[compiledExpression.getSymbolTable().size()][];
+        columns[compiledExpression.getSlot("a")] = new double[]{40};
+        columns[compiledExpression.getSlot("f")] = new double[]{10};
+        columns[compiledExpression.getSlot("x")] = xs;
+
+        double[] interpreted = new double[xs.length];
+        double[] compiled = new double[xs.length];
+
+        compiledExpression.evaluateBatch(columns, interpreted);
+        compiledExpression.withExecutionMode(ExecutionMode.COMPILED).evaluateBatch(columns, compiled);
+
+        VariableFrame frame = compiledExpression.newFrame();
+        frame.set("a", 40);
+        frame.set("f", 10);
+
+        for (int i = 0; i < xs.length; i++) {
+            frame.set("x", xs[i]);
+
+            double expected = compiledExpression.evaluate(frame);
+
+            assertEquals(expected, interpreted[i]);
+            assertEquals(expected, compiled[i], 0.000000000001);
+        }
+    }
+
+    @Test
+    @DisplayName("parallel range evaluation")
+    void Test36() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("a*sin(f*x)");
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 40.0);
+        expressionVariables.put("f", 10.0);
+
+        assertEquals(5000, RangeEvaluator.countSamples(0, 500, 0.1));
+
+        double[] ys = new RangeEvaluator(compiledExpression, "x").evaluate(-1000, 1000, 0.01, expressionVariables);
+
+        assertEquals(200000, ys.length);
+
+        for (int i = 0; i < ys.length; i += 997) {
+            expressionVariables.put("x", RangeEvaluator.sample(-1000, 0.01, i));
+
+            assertEquals(compiledExpression.evaluate(expressionVariables), ys[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("Evaluating a shared compiled expression from many threads")
+    void Test37() throws Exception {
+        CompiledExpression interpreted = ShuntingYard.compile("a*sin(f*x)+sin(f*x)^2-x/(a+1)");
+        CompiledExpression compiled = interpreted.withExecutionMode(ExecutionMode.COMPILED);
+
+        int threads = 8;
+        int samples = 20000;
+
+        // Expected results, computed on one thread
+        double[] expected = new double[samples];
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 3.0);
+        expressionVariables.put("f", 0.5);
+
+        for (int i = 0; i < samples; i++) {
+            expressionVariables.put("x", i * 0.25);
+            expected[i] = interpreted.evaluate(expressionVariables);
+        }
+
+        List<String> variables = List.copyOf(interpreted.getVariables());
+        int symbols = interpreted.getSymbolTable().size();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+
+            results.add(executor.submit(() -> {
+                start.await();
+
+                int mismatches = 0;
+
+                // Every thread owns its frame, map and columns
+                VariableFrame frame = interpreted.newFrame();
+                frame.set("a", 3.0);
+                frame.set("f", 0.5);
+
+                HashMap<String, Double> threadVariables = new HashMap<>();
+                threadVariables.put("a", 3.0);
+                threadVariables.put("f", 0.5);
+
+                double[][] columns = new double[symbols][];
+                columns[interpreted.getSlot("a")] = new double[]{3.0};
+                columns[interpreted.getSlot("f")] = new double[]{0.5};
+                columns[interpreted.getSlot("x")] = new double[samples];
+                double[] out = new double[samples];
+
+                for (int i = thread; i < samples; i += threads) {
+                    double x = i * 0.25;
+
+                    frame.set("x", x);
+                    threadVariables.put("x", x);
+                    columns[interpreted.getSlot("x")][i] = x;
+
+                    if (interpreted.evaluate(frame) != expected[i]) {
+                        mismatches++;
+                    }
+                    if (compiled.evaluate(frame) != expected[i]) {
+                        mismatches++;
+                    }
+                    if (ShuntingYard.evaluate("a*sin(f*x)+sin(f*x)^2-x/(a+1)", threadVariables) != expected[i]) {
+                        mismatches++;
+                    }
+                }
+
+                interpreted.evaluateBatch(columns, out);
+
+                for (int i = thread; i < samples; i += threads) {
+                    if (out[i] != expected[i]) {
+                        mismatches++;
+                    }
+                }
+
+                return mismatches;
+            }));
+        }
+
+        start.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(0, result.get());
+        }
+
+        executor.shutdown();
+
+        // Evaluating must not have changed the shared expression
+        assertEquals(variables, interpreted.getVariables());
+        assertEquals(symbols, interpreted.getSymbolTable().size());
+    }
+
+    @Test
+    @DisplayName("syntax errors are reported with their kind and position")
+    void Test38() {
+        String[] expressions = {"1+$", "2*1.2.3", "2*", "3+-", "", "sin()", "2+3)*4", "1-(2))-3"};
+        ErrorKind[] kinds = {ErrorKind.INVALID_CHARACTER, ErrorKind.INVALID_NUMBER, ErrorKind.MISSING_OPERAND,
+                ErrorKind.UNEXPECTED_END, ErrorKind.EMPTY_EXPRESSION, ErrorKind.MISSING_OPERAND,
+                ErrorKind.UNMATCHED_PARENTHESIS, ErrorKind.UNMATCHED_PARENTHESIS};
+        int[] positions = {2, 2, 1, 3, 0, 0, 3, 5};
+
+        for (int i = 0; i < expressions.length; i++) {
+            String expression = expressions[i];
+
+            ExpressionException e = assertThrows(ExpressionException.class, () -> ShuntingYard.compile(expression));
+
+            assertEquals(kinds[i], e.getKind(), expression);
+            assertEquals(positions[i], e.getPosition(), expression);
+        }
+    }
+
+    @Test
+    @DisplayName("runtime errors come back as NaN")
+    void Test39() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("a/b+c");
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 0.0);
+        expressionVariables.put("b", 0.0);
+
+        assertEquals("c", compiledExpression.findMissingVariable(expressionVariables));
+        assertTrue(Double.isNaN(compiledExpression.evaluateOrNaN(expressionVariables)));
+
+        ExpressionException e = assertThrows(ExpressionException.class, () -> compiledExpression.evaluate(expressionVariables));
+        assertEquals(ErrorKind.UNKNOWN_VARIABLE, e.getKind());
+        assertEquals(0, e.getStackTrace().length);
+
+        // 0/0 is a domain error, reported as NaN rather than an exception
+        expressionVariables.put("c", 1.0);
+        assertNull(compiledExpression.findMissingVariable(expressionVariables));
+        assertTrue(Double.isNaN(compiledExpression.evaluate(expressionVariables)));
+
+        expressionVariables.put("a", 1.0);
+        expressionVariables.put("b", 4.0);
+        assertEquals(1.25, compiledExpression.evaluateOrNaN(expressionVariables));
+    }
+
+    @Test
+    @DisplayName("functions with several arguments")
+    void Test40() throws Exception {
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("x", 3.0);
+        expressionVariables.put("y", -4.0);
+
+        assertEquals(-4, ShuntingYard.evaluate("min(x, y)", expressionVariables));
+        assertEquals(7, ShuntingYard.evaluate("max(x, y) + max(-1, 4)", expressionVariables));
+        assertEquals(81, ShuntingYard.evaluate("pow(x, 4)", expressionVariables));
+        assertEquals(45, ShuntingYard.evaluate("atan2(1, 1)", expressionVariables), 1e-12);
+        assertEquals(6, ShuntingYard.evaluate("x2", expressionVariables));
+        assertEquals(0, ShuntingYard.evaluate("clamp(y, 0, 10)", expressionVariables));
+        assertEquals(5, ShuntingYard.evaluate("clamp(x*5, 0, 10)/2", expressionVariables));
+
+        CompiledExpression compiledExpression = ShuntingYard.compile("clamp(max(x, y), 2 * y, sin(x) + 1)");
+        assertEquals("x y MAX 2 y * x SIN 1 + CLAMP", compiledExpression.toString());
+
+        ExpressionException e = assertThrows(ExpressionException.class, () -> ShuntingYard.compile("1 + min(x, y, 2)"));
+        assertEquals(ErrorKind.ARGUMENT_COUNT, e.getKind());
+        assertEquals(4, e.getPosition());
+
+        e = assertThrows(ExpressionException.class, () -> ShuntingYard.compile("1, 2"));
+        assertEquals(ErrorKind.INVALID_CHARACTER, e.getKind());
+
+        // Rows evaluated as a batch go through the same function calls
+        double[][] columns = new double[compiledExpression.getSymbolTable().size()][];
+        columns[compiledExpression.getSlot("x")] = new double[]{-90, 0, 45, 90};
+        columns[compiledExpression.getSlot("y")] = new double[]{-3};
+
+        double[] out = new double[4];
+        compiledExpression.evaluateBatch(columns, out);
+
+        for (int i = 0; i < out.length; i++) {
+            expressionVariables.put("x", columns[compiledExpression.getSlot("x")][i]);
+            expressionVariables.put("y", -3.0);
+
+            assertEquals(compiledExpression.evaluate(expressionVariables), out[i]);
+        }
+    }
+
+    @Test
+    @DisplayName("registering functions")
+    void Test41() throws Exception {
+        FunctionRegistry functions = FunctionRegistry.withDefaults();
+
+        int[] calls = new int[1];
+
+        functions.register("hypot", true, Math::hypot);
+        functions.register("noise", false, value -> value + calls[0]++);
+
+        assertEquals(2, functions.get("HYPOT").getArity());
+        assertThrows(IllegalArgumentException.class, () -> functions.register("sin", true, Math::sin));
+        assertThrows(IllegalArgumentException.class, () -> functions.register("my_function", true, Math::sin));
+
+        // The default registry is not changed, and cannot be, so cached expressions keep their meaning
+        assertNull(FunctionRegistry.getDefault().get("hypot"));
+        assertThrows(UnsupportedOperationException.class, () -> FunctionRegistry.getDefault().register("ab", true, Math::abs));
+        assertEquals(6.0, ShuntingYard.evaluate("ab", new HashMap<>(Map.of("a", 2.0, "b", 3.0))));
+
+        CompiledExpression pure = ShuntingYard.compile("hypot(3, 4) * hypot(x, 1) + hypot(x, 1)", new SymbolTable(), functions, true);
+
+        assertEquals(List.of("folded hypot(3, 4) to 5.0", "shared hypot(x, 1) (used 2 times)"), pure.getOptimizations());
+
+        VariableFrame frame = pure.newFrame();
+        frame.set("x", 0);
+
+        assertEquals(6, pure.evaluate(frame));
+
+        // Functions that are not pure are neither folded nor shared
+        CompiledExpression impure = ShuntingYard.compile("noise(1) + noise(1)", new SymbolTable(), functions, true);
+
+        assertEquals(List.of(), impure.getOptimizations());
+        assertEquals(3, impure.evaluate(impure.newFrame()));
+        assertEquals(2, calls[0]);
+
+        // Registered functions are called by the interpreter, even when compiling to a JVM class is requested
+        assertEquals(ExecutionMode.INTERPRETED, impure.withExecutionMode(ExecutionMode.COMPILED).getExecutionMode());
+    }
+
+    @Test
+    @DisplayName("fast trigonometric functions stay within their error bound")
+    void Test42() {
+        double maxError = 0;
+
+        for (double degrees = -1080; degrees <= 1080; degrees += 0.0013) {
+            double radians = Math.toRadians(degrees);
+
+            maxError = Math.max(maxError, Math.abs(FastTrig.sin(degrees) - Math.sin(radians)));
+            maxError = Math.max(maxError, Math.abs(FastTrig.cos(degrees) - Math.cos(radians)));
+
+            // Away from the asymptotes of tan, its relative error is bounded
+            double reduced = degrees - 180 * Math.rint(degrees / 180);
+
+            if (Math.abs(reduced) <= 80) {
+                double tan = Math.tan(radians);
+                assertEquals(tan, FastTrig.tan(degrees), Math.max(Math.abs(tan), 1) * 1e-7, "tan " + degrees);
+            }
+        }
+
+        assertTrue(maxError <= FastTrig.ERROR_BOUND, "error " + maxError);
+
+        // Large angles are reduced exactly
+        for (double degrees = 1e9; degrees < 1e9 + 360; degrees += 0.37) {
+            assertEquals(Math.sin(Math.toRadians(degrees % 360)), FastTrig.sin(degrees), FastTrig.ERROR_BOUND);
+        }
+
+        assertEquals(0, FastTrig.sin(180));
+        assertEquals(-1, FastTrig.sin(-90));
+        assertTrue(Double.isNaN(FastTrig.cos(Double.POSITIVE_INFINITY)));
+        assertTrue(Double.isNaN(FastTrig.sin(Double.NaN)));
+    }
+
+    @Test
+    @DisplayName("fast math mode can be chosen per call")
+    void Test43() throws Exception {
+        CompiledExpression compiledExpression = ShuntingYard.compile("a*sin(f*x) + cos(x)");
+        CompiledExpression compiled = compiledExpression.withExecutionMode(ExecutionMode.COMPILED);
+
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 40.0);
+        expressionVariables.put("f", 10.0);
+
+        double[] strict = new RangeEvaluator(compiledExpression, "x").evaluate(0, 500, 0.1, expressionVariables);
+
+        double[][] columns = new double[compiledExpression.getSymbolTable().size()][];
+        columns[compiledExpression.getSlot("a")] = new double[]{40};
+        columns[compiledExpression.getSlot("f")] = new double[]{10};
+
+        double[] xs = new double[strict.length];
+        double[] fast = new double[strict.length];
+
+        new RangeEvaluator(compiled, "x").evaluate(0, 0.1, columns, xs, fast, MathMode.FAST);
+
+        VariableFrame frame = compiledExpression.newFrame();
+        frame.set("a", 40);
+        frame.set("f", 10);
+
+        for (int i = 0; i < strict.length; i++) {
+            assertEquals(strict[i], fast[i], 41 * FastTrig.ERROR_BOUND);
+
+            frame.set("x", xs[i]);
+
+            assertEquals(fast[i], compiled.evaluate(frame.getValues(), MathMode.FAST));
+            assertEquals(strict[i], compiled.evaluate(frame));
+        }
+    }
+
+    @Test
+    @DisplayName("adaptive sampling refines only where the curve bends")
+    void Test44() throws Exception {
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("a", 40.0);
+        expressionVariables.put("f", 10.0);
+
+        // A straight line needs no refinement at all
+        AdaptiveSampler line = new AdaptiveSampler(ShuntingYard.compile("2*x+a"), "x");
+        AdaptiveSampler.Samples lineSamples = line.sample(0, 500, expressionVariables);
+
+        assertEquals(257, lineSamples.size());
+
+        // A sine is sampled densely enough that no point of the curve is further than the tolerance from the lines
+        CompiledExpression sine = ShuntingYard.compile("a*sin(f*x)");
+        AdaptiveSampler sampler = new AdaptiveSampler(sine, "x");
+        AdaptiveSampler.Samples samples = sampler.sample(0, 500, expressionVariables);
+
+        assertTrue(samples.size() < 5000, "samples " + samples.size());
+        assertEquals(0, samples.getX(0));
+        assertEquals(500, samples.getX(samples.size() - 1));
+
+        VariableFrame frame = sine.newFrame();
+        frame.set("a", 40);
+        frame.set("f", 10);
+
+        for (int i = 1; i < samples.size(); i++) {
+            double x0 = samples.getX(i - 1), x1 = samples.getX(i);
+            assertTrue(x1 > x0);
+
+            for (double t = 0.25; t < 1; t += 0.25) {
+                frame.set("x", x0 + t * (x1 - x0));
+                double interpolated = samples.getY(i - 1) + t * (samples.getY(i) - samples.getY(i - 1));
+
+                assertEquals(sine.evaluate(frame), interpolated, 1.0);
+            }
+        }
+
+        // The budget limits the number of evaluations
+        sampler.setBudget(101);
+        assertEquals(101, sampler.sample(0, 500, expressionVariables).size());
+    }
+
+    @Test
+    @DisplayName("unary minus in front of an exponent applies to the exponent only")
+    void Test45() throws Exception {
+        HashMap<String, Double> expressionVariables = new HashMap<>();
+        expressionVariables.put("x", 3.0);
+
+        assertEquals(0.125, ShuntingYard.evaluate("2^-x", expressionVariables));
+        assertEquals(Math.pow(3, -0.49999999999999994), ShuntingYard.evaluate("x^-sin(30)", expressionVariables));
+        assertEquals(0.125 * 3, ShuntingYard.evaluate("2^-x*3", expressionVariables));
+        assertEquals(Math.pow(2, -9), ShuntingYard.evaluate("2^-x^2", expressionVariables));
+
+        // Negation still applies after exponents and before everything else
+        assertEquals(-9.0, ShuntingYard.evaluate("-x^2", expressionVariables));
+        assertEquals(-6.0, ShuntingYard.evaluate("-x*2", expressionVariables));
+        assertEquals(5.0, ShuntingYard.evaluate("2--x", expressionVariables));
+        assertEquals(-5.0, ShuntingYard.evaluate("-(x+2)", expressionVariables));
+
+        for (ExecutionMode executionMode : ExecutionMode.values()) {
+            CompiledExpression compiledExpression = ShuntingYard.compile("2^-x").withExecutionMode(executionMode);
+            assertEquals(0.125, compiledExpression.evaluate(expressionVariables), executionMode.name());
+        }
+    }
+
+    @Test
+    @DisplayName("functions can evaluate other expressions while they are called")
+    void Test46() throws Exception {
+        CompiledExpression inner = ShuntingYard.compile("x*100+7");
+
+        FunctionRegistry functions = FunctionRegistry.withDefaults();
+
+        // Not pure, so the call is not folded at compile time and really runs during the evaluation
+        functions.register("g", false, value -> inner.evaluateOrNaN(Map.of("x", value)));
+
+        CompiledExpression outer = ShuntingYard.compile("5 + x*2 + g(1)", new SymbolTable(), functions, true);
+
+        assertEquals(132.0, outer.evaluate(Map.of("x", 10.0)));
+        assertEquals(132.0, outer.evaluateOrNaN(Map.of("x", 10.0)));
+
+        // Nested more than once
+        functions.register("h", false, value -> outer.evaluateOrNaN(Map.of("x", value)) + inner.evaluateOrNaN(Map.of("x", value)));
+        CompiledExpression twice = ShuntingYard.compile("x + h(x)", new SymbolTable(), functions, true);
+
+        assertEquals(10 + 132 + 1007.0, twice.evaluate(Map.of("x", 10.0)));
+    }
+
+    @Test
+    @DisplayName("identity operations do not drop calls to functions that are not pure")
+    void Test47() throws Exception {
+        FunctionRegistry functions = FunctionRegistry.withDefaults();
+
+        int[] calls = new int[1];
+        functions.register("noise", false, value -> value + calls[0]++);
+
+        String[] expressions = {"noise(x)^0", "noise(x)^1", "noise(x)*1", "1*noise(x)", "noise(x)+0", "noise(x)-0", "noise(x)/1"};
+        double[] results = {1, 2, 2, 2, 2, 2, 2};
+
+        for (int i = 0; i < expressions.length; i++) {
+            CompiledExpression compiledExpression = ShuntingYard.compile(expressions[i], new SymbolTable(), functions, true);
+
+            calls[0] = 0;
+
+            VariableFrame frame = compiledExpression.newFrame();
+            frame.set("x", 2);
+
+            assertEquals(results[i], compiledExpression.evaluate(frame), expressions[i]);
+            assertEquals(1, calls[0], expressions[i]);
+        }
+
+        // Identities without side effects are still removed
+        CompiledExpression pure = ShuntingYard.compile("sin(x)^0 + x*1", new SymbolTable(), functions, true);
+        assertEquals(List.of("simplified (sin(x) ^ 0) to 1.0", "simplified (x * 1) to x"), pure.getOptimizations());
+    }
+
+    @Test
+    @DisplayName("long and deeply nested expressions compile without overflowing the stack")
+    void Test48() throws Exception {
+        StringBuilder sum = new StringBuilder("x");
+
+        for (int i = 2; i <= 20000; i++) {
+            sum.append("+x*").append(i);
+        }
+
+        String nested = "(".repeat(10000) + "x" + "+1)".repeat(10000);
+        String shared = "(" + sum + ")*2-(" + sum + ")";
+
+        for (boolean optimize : new boolean[]{true, false}) {
+            CompiledExpression sumExpression = ShuntingYard.compile(sum.toString(), new SymbolTable(), optimize);
+            CompiledExpression nestedExpression = ShuntingYard.compile(nested, new SymbolTable(), optimize);
+            CompiledExpression sharedExpression = ShuntingYard.compile(shared, new SymbolTable(), optimize);
+
+            for (ExecutionMode executionMode : ExecutionMode.values()) {
+                assertEquals(200010000.0, sumExpression.withExecutionMode(executionMode).evaluate(Map.of("x", 1.0)));
+                assertEquals(10002.0, nestedExpression.withExecutionMode(executionMode).evaluate(Map.of("x", 2.0)));
+                assertEquals(200010000.0, sharedExpression.withExecutionMode(executionMode).evaluate(Map.of("x", 1.0)));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("frames created before the symbol table grew can still be used")
+    void Test49() throws Exception {
+        SymbolTable symbolTable = new SymbolTable();
+
+        CompiledExpression first = ShuntingYard.compile("x+1", symbolTable);
+        VariableFrame frame = first.newFrame();
+        frame.set("x", 3);
+
+        CompiledExpression second = ShuntingYard.compile("x+y", symbolTable);
+
+        // y was added to the table after the frame was created, it has no value yet
+        assertTrue(Double.isNaN(second.evaluate(frame)));
+        assertTrue(Double.isNaN(frame.get(symbolTable.slotOf("y"))));
+
+        frame.set(symbolTable.slotOf("y"), 2);
+
+        assertEquals(5.0, second.evaluate(frame));
+        assertEquals(4.0, first.evaluate(frame));
+        assertEquals(5.0, second.withExecutionMode(ExecutionMode.COMPILED).evaluate(frame));
+    }
 }
@@ -0,0 +1,206 @@
+package io.girish;
+
+import io.girish.cli.Value;
+import io.girish.cli.Workspace;
+import io.girish.core.ResultFormatter;
+import io.girish.shuntingyard.ExpressionException;
+import io.girish.shuntingyard.enums.ErrorKind;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestWorkspace {
+    @Test
+    @DisplayName("ranges include the end like MATLAB")
+    void Test1() throws Exception {
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5}, Workspace.range(1, 1, 5));
+        assertArrayEquals(new double[]{5, 3, 1}, Workspace.range(5, -2, 1));
+        assertEquals(4, Workspace.range(0, 0.1, 0.3).length);
+        assertEquals(5001, Workspace.range(0, 0.1, 500).length);
+        assertEquals(0, Workspace.range(5, 1, 1).length);
+
+        ExpressionException e = assertThrows(ExpressionException.class, () -> Workspace.range(0, 0, 1));
+        assertEquals(ErrorKind.INVALID_RANGE, e.getKind());
+    }
+
+    @Test
+    @DisplayName("range literals declare array variables")
+    void Test2() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("n", "3");
+        Value x = workspace.declare("x", "n-3 : 0.5 : 2*n/3");
+
+        assertTrue(x.isArray());
+        assertArrayEquals(new double[]{0, 0.5, 1, 1.5, 2}, workspace.getArrayVariables().get("x"));
+        assertFalse(workspace.getExpressionVariables().containsKey("x"));
+
+        assertArrayEquals(new double[]{1, 2, 3}, workspace.evaluate("1:3").getArray());
+        assertThrows(ExpressionException.class, () -> workspace.evaluate("1:2:3:4"));
+        assertThrows(ExpressionException.class, () -> workspace.evaluate("x:3"));
+    }
+
+    @Test
+    @DisplayName("expressions with arrays are evaluated element-wise")
+    void Test3() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("a", "40");
+        workspace.declare("f", "10");
+        workspace.declare("x", "0:0.1:500");
+
+        double[] ys = workspace.evaluate("a*sin(f*x)").getArray();
+        double[] xs = workspace.getArrayVariables().get("x");
+
+        assertEquals(5001, ys.length);
+
+        for (int i = 0; i < ys.length; i++) {
+            assertEquals(40 * Math.sin(Math.toRadians(10 * xs[i])), ys[i], 1e-9);
+        }
+
+        // Arrays can be declared from other arrays and combined with them
+        workspace.declare("y", "x*2");
+        assertArrayEquals(xs, workspace.evaluate("y-x").getArray());
+
+        // Numbers stay numbers, and a number replaces an array of the same name
+        assertFalse(workspace.evaluate("a*f").isArray());
+        workspace.declare("y", "1");
+        assertEquals(1.0, workspace.getExpressionVariables().get("y"));
+        assertFalse(workspace.getArrayVariables().containsKey("y"));
+    }
+
+    @Test
+    @DisplayName("arrays of different lengths cannot be combined")
+    void Test4() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("x", "1:3");
+        workspace.declare("y", "1:4");
+
+        ExpressionException e = assertThrows(ExpressionException.class, () -> workspace.evaluate("x+y"));
+        assertEquals(ErrorKind.LENGTH_MISMATCH, e.getKind());
+        assertEquals("Arrays x and y differ in length (3 and 4)", e.getMessage());
+
+        e = assertThrows(ExpressionException.class, () -> workspace.evaluate("x+z"));
+        assertEquals(ErrorKind.UNKNOWN_VARIABLE, e.getKind());
+    }
+
+    @Test
+    @DisplayName("long arrays are shown with their first and last values")
+    void Test5() throws Exception {
+        ResultFormatter resultFormatter = new ResultFormatter();
+
+        assertEquals("[1, 2, 3]", Value.of(Workspace.range(1, 1, 3)).format(resultFormatter));
+        assertEquals("[0, 0.1, 0.2, 0.3, 0.4, ..., 499.6, 499.7, 499.8, 499.9, 500] (5001 values)",
+                Value.of(Workspace.range(0, 0.1, 500)).format(resultFormatter));
+        assertEquals("[]", Value.of(new double[0]).format(resultFormatter));
+        assertEquals("2.5", Value.of(2.5).toString());
+    }
+
+    @Test
+    @DisplayName("declarations recompute the variables that depend on them")
+    void Test6() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("a", "40");
+        workspace.declare("b", "a*2");
+        workspace.declare("c", "b+a");
+        workspace.declare("d", "7");
+        workspace.declare("e", "c*b");
+
+        workspace.declare("a", "50");
+
+        assertEquals(100.0, workspace.getExpressionVariables().get("b"));
+        assertEquals(150.0, workspace.getExpressionVariables().get("c"));
+        assertEquals(15000.0, workspace.getExpressionVariables().get("e"));
+
+        // Only what depends on a, and every variable after the ones it uses
+        assertEquals(List.of("b", "c", "e"), workspace.getUpdatedVariables());
+
+        workspace.declare("d", "8");
+        assertEquals(List.of(), workspace.getUpdatedVariables());
+
+        // Redefining b removes its link to a
+        workspace.declare("b", "d");
+        assertEquals(List.of("c", "e"), workspace.getUpdatedVariables());
+        workspace.declare("a", "1");
+        assertEquals(List.of("c", "e"), workspace.getUpdatedVariables());
+        assertEquals(9.0, workspace.getExpressionVariables().get("c"));
+        assertEquals("b+a", workspace.getDefinition("c"));
+    }
+
+    @Test
+    @DisplayName("circular definitions are rejected when they are declared")
+    void Test7() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("a", "1");
+        workspace.declare("b", "a+1");
+        workspace.declare("c", "b*2");
+
+        ExpressionException e = assertThrows(ExpressionException.class, () -> workspace.declare("a", "c-1"));
+        assertEquals(ErrorKind.CIRCULAR_DEFINITION, e.getKind());
+        assertEquals("Circular definition: a uses c, which uses b, which uses a", e.getMessage());
+
+        // Nothing changed
+        assertEquals(1.0, workspace.getExpressionVariables().get("a"));
+        assertEquals("1", workspace.getDefinition("a"));
+
+        // Using its own name updates the current value instead
+        workspace.declare("a", "a+1");
+        assertEquals(2.0, workspace.getExpressionVariables().get("a"));
+        assertEquals(6.0, workspace.getExpressionVariables().get("c"));
+        workspace.declare("a", "a+1");
+        assertEquals(3.0, workspace.getExpressionVariables().get("a"));
+    }
+
+    @Test
+    @DisplayName("arrays are recomputed like numbers")
+    void Test8() throws Exception {
+        Workspace workspace = new Workspace();
+
+        workspace.declare("n", "3");
+        workspace.declare("x", "1:n");
+        workspace.declare("y", "x*2");
+        workspace.declare("z", "1:3");
+        workspace.declare("s", "y+z");
+
+        workspace.declare("n", "4");
+
+        assertArrayEquals(new double[]{2, 4, 6, 8}, workspace.getArrayVariables().get("y"));
+
+        // y and z no longer have the same length
+        assertEquals(Double.NaN, workspace.getExpressionVariables().get("s"));
+        assertEquals(List.of("x", "y", "s"), workspace.getUpdatedVariables());
+    }
+
+    @Test
+    @DisplayName("long chains of formulas are recomputed in order")
+    void Test9() throws Exception {
+        Workspace workspace = new Workspace();
+        String[] names = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k"};
+
+        workspace.declare("a", "1");
+
+        for (int i = 1; i < names.length; i++) {
+            workspace.declare(names[i], names[i - 1] + "*2+" + names[0]);
+        }
+
+        workspace.declare("a", "2");
+
+        double expected = 2;
+        for (int i = 1; i < names.length; i++) {
+            expected = expected * 2 + 2;
+            assertEquals(expected, workspace.getExpressionVariables().get(names[i]));
+        }
+
+        assertEquals(names.length - 1, workspace.getUpdatedVariables().size());
+    }
+}